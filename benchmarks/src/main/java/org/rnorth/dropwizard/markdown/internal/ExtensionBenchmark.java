@@ -0,0 +1,87 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.collect.ImmutableList;
+import com.vladsch.flexmark.Extension;
+import com.vladsch.flexmark.ast.Node;
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rnorth.dropwizard.markdown.MarkdownAssetsBundle;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures flexmark parse and render time with each of the bundle's default extensions enabled on its own, so that
+ * the cost of an extension is its score minus the score for {@code none}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtensionBenchmark {
+
+    /*
+     * Simple class names of entries in DEFAULT_FLEXMARK_EXTENSIONS, or 'none'/'all'
+     */
+    @Param({"none",
+            "AnchorLinkExtension",
+            "AutolinkExtension",
+            "FootnoteExtension",
+            "StrikethroughExtension",
+            "TaskListExtension",
+            "TablesExtension",
+            "SimTocExtension",
+            "TypographicExtension",
+            "all"})
+    public String extension;
+
+    @Param({"LARGE"})
+    public MarkdownCorpus corpus;
+
+    private Parser parser;
+    private HtmlRenderer renderer;
+    private String markdownSource;
+
+    @Setup
+    public void setUp() {
+        List<Extension> extensions = extensions(extension);
+        parser = Parser.builder(MarkdownAssetsBundle.DEFAULT_FLEXMARK_OPTIONS).extensions(extensions).build();
+        renderer = HtmlRenderer.builder(MarkdownAssetsBundle.DEFAULT_FLEXMARK_OPTIONS).extensions(extensions).build();
+        markdownSource = corpus.generate();
+    }
+
+    @Benchmark
+    public String parseAndRender() {
+        Node document = parser.parse(markdownSource);
+        return renderer.render(document);
+    }
+
+    private static List<Extension> extensions(String name) {
+        switch (name) {
+            case "none":
+                return ImmutableList.of();
+            case "all":
+                return MarkdownAssetsBundle.DEFAULT_FLEXMARK_EXTENSIONS;
+            default:
+                for (Extension candidate : MarkdownAssetsBundle.DEFAULT_FLEXMARK_EXTENSIONS) {
+                    if (candidate.getClass().getSimpleName().equals(name)) {
+                        return ImmutableList.of(candidate);
+                    }
+                }
+                throw new IllegalArgumentException("No default extension named " + name);
+        }
+    }
+}
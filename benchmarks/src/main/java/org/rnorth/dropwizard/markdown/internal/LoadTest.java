@@ -0,0 +1,462 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.rnorth.dropwizard.markdown.MarkdownAssetsBundle;
+import org.rnorth.dropwizard.markdown.MarkdownAssetsConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the servlet, embedded in Jetty, under many concurrent clients. Each client repeatedly requests a
+ * weighted mix of rendered pages (in each format), the stylesheet and a passthrough asset, revalidating with
+ * {@code If-None-Match} some of the time, as browsers do.
+ * <p>
+ * Each scenario is run in turn:
+ * <ul>
+ * <li>{@code cold}: the cache is emptied just before measurement starts, so concurrent clients race to render</li>
+ * <li>{@code warm}: every page is rendered into the cache before measurement starts</li>
+ * <li>{@code expiring}: pages expire from the cache every second, so are repeatedly re-rendered under load</li>
+ * </ul>
+ * Throughput, latency percentiles and the rate of allocation by server and render threads are reported for each. If a
+ * baseline file is given, the results are compared with it and the test exits with a non-zero status if throughput,
+ * 99th percentile latency or allocation per request have regressed beyond the tolerance, or if the file does not
+ * exist. With {@code loadTest.updateBaseline}, the results are instead recorded in it as the baseline for later runs.
+ * <p>
+ * Clients send their next request as soon as the previous one completes, so latencies are those seen by a fixed
+ * number of busy clients rather than at a fixed arrival rate.
+ * <p>
+ * Settings are read from system properties: {@code loadTest.scenarios} (default: {@code cold,warm,expiring}),
+ * {@code loadTest.concurrency} (default: 200), {@code loadTest.warmUpSeconds} (default: 10),
+ * {@code loadTest.durationSeconds} (default: 30), {@code loadTest.conditionalRatio} (default: 0.5),
+ * {@code loadTest.asyncServing} (default: false), {@code loadTest.baseline}, {@code loadTest.updateBaseline} and
+ * {@code loadTest.tolerance} (default: 0.2).
+ * <p>
+ * Run with {@code mvn -f benchmarks/pom.xml verify -Pload-test}, or
+ * {@code java -cp benchmarks/target/benchmarks.jar org.rnorth.dropwizard.markdown.internal.LoadTest}.
+ */
+public class LoadTest {
+
+    private static final String RESOURCE_PATH = "/load-test-site";
+    private static final String SERVER_THREAD_NAME = "load-test-server";
+    private static final String RENDER_THREAD_NAME = "load-test-render";
+    private static final int MAX_SERVER_THREADS = 1000;
+    private static final int RENDER_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /*
+     * Differences in latency smaller than this are treated as noise rather than regressions
+     */
+    private static final double LATENCY_SLACK_MILLIS = 1.0;
+
+    /*
+     * Requested paths (below /docs), each with its share of requests
+     */
+    private static final Target[] TARGETS = {
+            new Target("/", 25),
+            new Target("/guide.md", 25),
+            new Target("/guide.md?format=fragment", 10),
+            new Target("/index.md?format=json", 10),
+            new Target("/dropwizard-markdown.css", 15),
+            new Target("/highlight-init.js", 15)
+    };
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public static void main(String[] args) throws Exception {
+        List<String> scenarios = Arrays.asList(System.getProperty("loadTest.scenarios", "cold,warm,expiring").split(","));
+        int concurrency = Integer.getInteger("loadTest.concurrency", 200);
+        int warmUpSeconds = Integer.getInteger("loadTest.warmUpSeconds", 10);
+        int durationSeconds = Integer.getInteger("loadTest.durationSeconds", 30);
+        double conditionalRatio = Double.parseDouble(System.getProperty("loadTest.conditionalRatio", "0.5"));
+        boolean asyncServing = Boolean.getBoolean("loadTest.asyncServing");
+
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (String scenario : scenarios) {
+            Result result = run(scenario.trim(), concurrency, warmUpSeconds, durationSeconds, conditionalRatio, asyncServing);
+            System.out.println(result);
+            results.put(scenario.trim(), result);
+        }
+
+        String baselinePath = System.getProperty("loadTest.baseline");
+        if (baselinePath != null && !compareWithBaseline(results, new File(baselinePath))) {
+            System.exit(1);
+        }
+    }
+
+    private static Result run(String scenario, int concurrency, int warmUpSeconds, int durationSeconds,
+                              double conditionalRatio, boolean asyncServing) throws Exception {
+        MarkdownAssetsConfiguration configuration = new MarkdownAssetsConfiguration();
+        configuration.setAsyncServing(asyncServing);
+
+        CacheBuilderSpec cacheSpec;
+        switch (scenario) {
+            case "cold":
+            case "warm":
+                cacheSpec = MarkdownAssetsBundle.DEFAULT_CACHE_SPEC;
+                break;
+            case "expiring":
+                cacheSpec = CacheBuilderSpec.parse("expireAfterWrite=1s");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+
+        ExecutorService renderExecutor = Executors.newFixedThreadPool(RENDER_THREADS,
+                new ThreadFactoryBuilder().setNameFormat(RENDER_THREAD_NAME + "-%d").build());
+        MarkdownAssetsServlet servlet = new MarkdownAssetsServlet(
+                RESOURCE_PATH,
+                "/docs/",
+                MarkdownAssetsBundle.DEFAULT_INDEX_FILE,
+                StandardCharsets.UTF_8,
+                configuration,
+                MarkdownAssetsBundle.DEFAULT_FLEXMARK_EXTENSIONS,
+                MarkdownAssetsBundle.DEFAULT_FLEXMARK_OPTIONS,
+                cacheSpec,
+                renderExecutor,
+                new MarkdownAssetsMetrics(new MetricRegistry(), "load-test-" + scenario));
+
+        QueuedThreadPool threadPool = new QueuedThreadPool(MAX_SERVER_THREADS, 8);
+        threadPool.setName(SERVER_THREAD_NAME);
+        // Server threads are kept for the whole run, so that none of their allocation goes unaccounted for
+        threadPool.setIdleTimeout((int) TimeUnit.MINUTES.toMillis(10));
+        Server server = new Server(threadPool);
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+
+        ServletContextHandler context = new ServletContextHandler();
+        ServletHolder holder = new ServletHolder(servlet);
+        holder.setAsyncSupported(true);
+        context.addServlet(holder, "/docs/*");
+        server.setHandler(context);
+        server.start();
+
+        List<Client> clients = new ArrayList<>();
+        try {
+            String baseUrl = "http://localhost:" + connector.getLocalPort() + "/docs";
+            CountDownLatch finished = new CountDownLatch(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                Client client = new Client(baseUrl, i, conditionalRatio, finished);
+                clients.add(client);
+                client.start();
+            }
+
+            // Let the JIT compile the serving paths before anything is measured
+            TimeUnit.SECONDS.sleep(warmUpSeconds);
+            if ("warm".equals(scenario)) {
+                servlet.warmCache(RENDER_THREADS);
+            } else if ("cold".equals(scenario)) {
+                servlet.invalidateAll();
+            }
+
+            Map<Long, Long> allocatedAtStart = allocatedBytesByServerThreads();
+            long start = System.nanoTime();
+            for (Client client : clients) {
+                client.measuring = true;
+            }
+            TimeUnit.SECONDS.sleep(durationSeconds);
+            for (Client client : clients) {
+                client.running = false;
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            finished.await();
+
+            long allocated = allocatedSince(allocatedAtStart);
+            return Result.of(scenario, clients, elapsedNanos, allocated);
+        } finally {
+            for (Client client : clients) {
+                client.running = false;
+            }
+            server.stop();
+            renderExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return whether the results are within the tolerance of the baseline (or were recorded as the new baseline)
+     */
+    private static boolean compareWithBaseline(Map<String, Result> results, File baselineFile) throws IOException {
+        double tolerance = Double.parseDouble(System.getProperty("loadTest.tolerance", "0.2"));
+
+        if (Boolean.getBoolean("loadTest.updateBaseline")) {
+            JSON_MAPPER.writeValue(baselineFile, results);
+            System.out.println("Recorded results as the baseline in " + baselineFile);
+            return true;
+        }
+        if (!baselineFile.exists()) {
+            // Otherwise a missing or misnamed baseline would silently pass every run
+            System.out.println("No baseline found at " + baselineFile + " - record one with -DloadTest.updateBaseline=true");
+            return false;
+        }
+
+        Map<String, Result> baseline = JSON_MAPPER.readValue(baselineFile, new TypeReference<Map<String, Result>>() {
+        });
+
+        boolean passed = true;
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            Result result = entry.getValue();
+            Result expected = baseline.get(entry.getKey());
+            if (expected == null) {
+                System.out.println(entry.getKey() + ": no baseline to compare with - record one with -DloadTest.updateBaseline=true");
+                passed = false;
+                continue;
+            }
+
+            List<String> regressions = new ArrayList<>();
+            if (result.errors > 0) {
+                regressions.add(result.errors + " failed requests");
+            }
+            if (result.throughput < expected.throughput * (1 - tolerance)) {
+                regressions.add(String.format("throughput %.0f/s, baseline %.0f/s", result.throughput, expected.throughput));
+            }
+            if (result.p99Millis > expected.p99Millis * (1 + tolerance) + LATENCY_SLACK_MILLIS) {
+                regressions.add(String.format("p99 %.2fms, baseline %.2fms", result.p99Millis, expected.p99Millis));
+            }
+            if (result.allocatedBytesPerRequest > expected.allocatedBytesPerRequest * (1 + tolerance)) {
+                regressions.add(String.format("allocation %.0fB/request, baseline %.0fB/request",
+                        result.allocatedBytesPerRequest, expected.allocatedBytesPerRequest));
+            }
+
+            if (regressions.isEmpty()) {
+                System.out.println(entry.getKey() + ": within " + Math.round(tolerance * 100) + "% of baseline");
+            } else {
+                System.out.println(entry.getKey() + ": REGRESSED - " + String.join(", ", regressions));
+                passed = false;
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * @return bytes allocated so far by each live server and render thread, by thread ID
+     */
+    private static Map<Long, Long> allocatedBytesByServerThreads() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Map<Long, Long> allocated = new HashMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(SERVER_THREAD_NAME) || thread.getName().startsWith(RENDER_THREAD_NAME)) {
+                long bytes = threads.getThreadAllocatedBytes(thread.getId());
+                if (bytes >= 0) {
+                    allocated.put(thread.getId(), bytes);
+                }
+            }
+        }
+        return allocated;
+    }
+
+    private static long allocatedSince(Map<Long, Long> allocatedAtStart) {
+        long total = 0;
+        for (Map.Entry<Long, Long> entry : allocatedBytesByServerThreads().entrySet()) {
+            // Threads started since the start allocated everything they have within the measurement period
+            total += entry.getValue() - allocatedAtStart.getOrDefault(entry.getKey(), 0L);
+        }
+        return total;
+    }
+
+    private static class Target {
+        final String path;
+        final int weight;
+
+        Target(String path, int weight) {
+            this.path = path;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A client sending requests one after another, on its own thread, over a kept-alive connection.
+     */
+    private static class Client extends Thread {
+
+        private final String baseUrl;
+        private final Random random;
+        private final double conditionalRatio;
+        private final CountDownLatch finished;
+        private final Map<String, String> eTags = new HashMap<>();
+
+        volatile boolean running = true;
+        volatile boolean measuring = false;
+
+        long[] latencies = new long[1024];
+        int count;
+        int errors;
+        int notModified;
+
+        Client(String baseUrl, int seed, double conditionalRatio, CountDownLatch finished) {
+            this.baseUrl = baseUrl;
+            this.random = new Random(seed);
+            this.conditionalRatio = conditionalRatio;
+            this.finished = finished;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                byte[] buffer = new byte[8192];
+                while (running) {
+                    String path = pick();
+                    String eTag = random.nextDouble() < conditionalRatio ? eTags.get(path) : null;
+
+                    long start = System.nanoTime();
+                    int status;
+                    try {
+                        status = request(path, eTag, buffer);
+                    } catch (IOException e) {
+                        status = -1;
+                    }
+                    long elapsed = System.nanoTime() - start;
+
+                    if (measuring && running) {
+                        record(elapsed, status);
+                    }
+                }
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        private String pick() {
+            int total = 0;
+            for (Target target : TARGETS) {
+                total += target.weight;
+            }
+            int choice = random.nextInt(total);
+            for (Target target : TARGETS) {
+                choice -= target.weight;
+                if (choice < 0) {
+                    return target.path;
+                }
+            }
+            throw new IllegalStateException();
+        }
+
+        private int request(String path, String eTag, byte[] buffer) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (eTag != null) {
+                connection.setRequestProperty("If-None-Match", eTag);
+            }
+
+            int status = connection.getResponseCode();
+            InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (body != null) {
+                // Read the whole body, so that the connection can be reused
+                try (InputStream in = body) {
+                    while (ByteStreams.read(in, buffer, 0, buffer.length) > 0) {
+                        // Discarded
+                    }
+                }
+            }
+
+            String responseETag = connection.getHeaderField("ETag");
+            if (status == HttpURLConnection.HTTP_OK && responseETag != null) {
+                eTags.put(path, responseETag);
+            }
+            return status;
+        }
+
+        private void record(long elapsedNanos, int status) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = elapsedNanos;
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                notModified++;
+            } else if (status != HttpURLConnection.HTTP_OK) {
+                errors++;
+            }
+        }
+    }
+
+    /**
+     * Results of a single scenario, in the form they are stored in the baseline file.
+     */
+    public static class Result {
+        public String scenario;
+        public long requests;
+        public long errors;
+        public long notModified;
+        public double throughput;
+        public double p50Millis;
+        public double p99Millis;
+        public double p999Millis;
+        public double maxMillis;
+        public double allocatedBytesPerSecond;
+        public double allocatedBytesPerRequest;
+
+        static Result of(String scenario, List<Client> clients, long elapsedNanos, long allocatedBytes) {
+            int total = 0;
+            for (Client client : clients) {
+                total += client.count;
+            }
+            long[] latencies = new long[total];
+            Result result = new Result();
+            result.scenario = scenario;
+            int offset = 0;
+            for (Client client : clients) {
+                System.arraycopy(client.latencies, 0, latencies, offset, client.count);
+                offset += client.count;
+                result.errors += client.errors;
+                result.notModified += client.notModified;
+            }
+            Arrays.sort(latencies);
+
+            double seconds = elapsedNanos / 1e9;
+            result.requests = total;
+            result.throughput = total / seconds;
+            result.p50Millis = percentileMillis(latencies, 0.5);
+            result.p99Millis = percentileMillis(latencies, 0.99);
+            result.p999Millis = percentileMillis(latencies, 0.999);
+            result.maxMillis = percentileMillis(latencies, 1.0);
+            result.allocatedBytesPerSecond = allocatedBytes / seconds;
+            result.allocatedBytesPerRequest = total > 0 ? (double) allocatedBytes / total : 0;
+            return result;
+        }
+
+        private static double percentileMillis(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1);
+            return sorted[index] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d requests (%d not modified, %d failed), %.0f requests/s, " +
+                            "latency p50 %.2fms p99 %.2fms p99.9 %.2fms max %.2fms, " +
+                            "allocation %.1fMB/s (%.0fB/request)",
+                    scenario, requests, notModified, errors, throughput,
+                    p50Millis, p99Millis, p999Millis, maxMillis,
+                    allocatedBytesPerSecond / (1024 * 1024), allocatedBytesPerRequest);
+        }
+    }
+}
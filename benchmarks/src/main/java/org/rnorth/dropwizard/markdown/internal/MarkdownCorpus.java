@@ -0,0 +1,93 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic markdown documents for benchmarking, exercising the same constructs as real documentation:
+ * headings, a table of contents, paragraphs with inline formatting and links, lists, task lists, tables, fenced
+ * code blocks and footnotes.
+ */
+public enum MarkdownCorpus {
+
+    SMALL(2),
+    MEDIUM(20),
+    LARGE(200),
+    VERY_LARGE(2000);
+
+    private static final String[] WORDS = {
+            "request", "response", "cache", "render", "markdown", "page", "header", "client", "server", "token",
+            "endpoint", "resource", "version", "status", "error", "payload", "field", "limit", "retry", "timeout"
+    };
+
+    private final int sections;
+
+    MarkdownCorpus(int sections) {
+        this.sections = sections;
+    }
+
+    /**
+     * @return the generated document; the same for every call, so that runs are comparable
+     */
+    public String generate() {
+        Random random = new Random(sections);
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("# Synthetic API reference\n\n");
+        sb.append("[TOC]: # \"Table of contents\"\n\n");
+
+        for (int section = 0; section < sections; section++) {
+            sb.append("## Section ").append(section).append(": ").append(sentence(random, 3)).append("\n\n");
+
+            for (int paragraph = 0; paragraph < 3; paragraph++) {
+                sb.append(sentence(random, 12)).append(" **").append(sentence(random, 2)).append("** and `")
+                        .append(word(random)).append("` with a [link](https://example.com/").append(word(random))
+                        .append(") and a footnote[^").append(section).append("-").append(paragraph).append("]. ")
+                        .append(sentence(random, 15)).append("\n\n");
+            }
+
+            sb.append("### Parameters\n\n");
+            sb.append("| Name | Type | Required | Description |\n");
+            sb.append("| ---- | :--: | -------: | ----------- |\n");
+            for (int row = 0; row < 6; row++) {
+                sb.append("| `").append(word(random)).append("` | string | ").append(random.nextBoolean() ? "yes" : "no")
+                        .append(" | ").append(sentence(random, 8)).append(" |\n");
+            }
+            sb.append("\n");
+
+            sb.append("### Example\n\n");
+            sb.append("```json\n{\n");
+            for (int line = 0; line < 8; line++) {
+                sb.append("    \"").append(word(random)).append("\": \"").append(word(random)).append("\",\n");
+            }
+            sb.append("    \"").append(word(random)).append("\": ").append(random.nextInt(1000)).append("\n}\n```\n\n");
+
+            sb.append("* ").append(sentence(random, 6)).append("\n");
+            sb.append("* ").append(sentence(random, 6)).append("\n");
+            sb.append("* [x] ").append(sentence(random, 4)).append("\n");
+            sb.append("* [ ] ").append(sentence(random, 4)).append("\n\n");
+
+            sb.append("> ").append(sentence(random, 10)).append(" ~~").append(word(random)).append("~~ -- \"quoted\"\n\n");
+
+            for (int paragraph = 0; paragraph < 3; paragraph++) {
+                sb.append("[^").append(section).append("-").append(paragraph).append("]: ")
+                        .append(sentence(random, 8)).append("\n\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(word(random));
+        }
+        return sb.toString();
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
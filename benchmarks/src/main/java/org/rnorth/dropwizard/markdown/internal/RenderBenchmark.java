@@ -0,0 +1,75 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rnorth.dropwizard.markdown.MarkdownAssetsBundle;
+import org.rnorth.dropwizard.markdown.MarkdownAssetsConfiguration;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the full render path for a page (parse, HTML render, template processing and compression) across
+ * documents of increasing size, with the bundle's default extensions and options.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE", "VERY_LARGE"})
+    public MarkdownCorpus corpus;
+
+    private MarkdownAssetsServlet servlet;
+    private String markdownSource;
+
+    @Setup
+    public void setUp() {
+        servlet = Servlets.create();
+        markdownSource = corpus.generate();
+    }
+
+    @Benchmark
+    public Object renderMarkdown() throws Exception {
+        return servlet.renderMarkdown(markdownSource, "benchmark.md", 0L);
+    }
+
+    /**
+     * Servlet construction shared by the benchmarks.
+     */
+    static final class Servlets {
+
+        static final String RESOURCE_PATH = "/benchmark-docs";
+
+        private Servlets() {
+        }
+
+        static MarkdownAssetsServlet create() {
+            return new MarkdownAssetsServlet(
+                    RESOURCE_PATH,
+                    "/docs/",
+                    MarkdownAssetsBundle.DEFAULT_INDEX_FILE,
+                    StandardCharsets.UTF_8,
+                    new MarkdownAssetsConfiguration(),
+                    MarkdownAssetsBundle.DEFAULT_FLEXMARK_EXTENSIONS,
+                    MarkdownAssetsBundle.DEFAULT_FLEXMARK_OPTIONS,
+                    MarkdownAssetsBundle.DEFAULT_CACHE_SPEC,
+                    MoreExecutors.newDirectExecutorService(),
+                    new MarkdownAssetsMetrics(new MetricRegistry(), "benchmark"));
+        }
+    }
+}
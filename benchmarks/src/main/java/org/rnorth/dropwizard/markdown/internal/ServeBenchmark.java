@@ -0,0 +1,94 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.HttpHeaders;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures {@link MarkdownAssetsServlet#doGet} for a page that is already cached, with one thread and with as many
+ * threads as there are processors.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServeBenchmark {
+
+    @Param({"identity", "gzip"})
+    public String acceptEncoding;
+
+    private MarkdownAssetsServlet servlet;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+
+    @Setup
+    public void setUp() throws Exception {
+        servlet = RenderBenchmark.Servlets.create();
+
+        // stubOnly, so that invocations are not recorded (which would grow without bound and contend between threads)
+        request = mock(HttpServletRequest.class, withSettings().stubOnly());
+        when(request.getPathInfo()).thenReturn("/index.md");
+        when(request.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn(acceptEncoding);
+        when(request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE)).thenReturn(-1L);
+
+        response = mock(HttpServletResponse.class, withSettings().stubOnly());
+        when(response.getOutputStream()).thenReturn(new DiscardingOutputStream());
+
+        // Populate the cache
+        servlet.doGet(request, response);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void cacheHitSingleThread() throws Exception {
+        servlet.doGet(request, response);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void cacheHitAllThreads() throws Exception {
+        servlet.doGet(request, response);
+    }
+
+    private static class DiscardingOutputStream extends ServletOutputStream {
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.codahale.metrics.MetricRegistry;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.rnorth.dropwizard.markdown.MarkdownAssetsBundle;
+import org.rnorth.dropwizard.markdown.MarkdownAssetsConfiguration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test comparing blocking and asynchronous serving under many slow clients: each client requests a large page
+ * and then reads it a little at a time, and the number of busy Jetty threads is sampled while they do.
+ * <p>
+ * With blocking serving, each slow client holds a container thread until its response is fully written; with
+ * asynchronous serving, threads are only used when a client is ready to receive more.
+ * <p>
+ * Run with {@code java -cp benchmarks/target/benchmarks.jar org.rnorth.dropwizard.markdown.internal.SlowReaderLoadTest [clients]};
+ * it fails if asynchronous serving does not substantially reduce the number of busy threads.
+ */
+public class SlowReaderLoadTest {
+
+    private static final String RESOURCE_PATH = "/load-test-docs";
+    private static final int MAX_SERVER_THREADS = 1000;
+    private static final int READ_CHUNK_SIZE = 1024;
+    private static final long READ_INTERVAL_MILLIS = 50;
+    private static final long SAMPLE_PERIOD_MILLIS = 5000;
+
+    /*
+     * Asynchronous serving fails the test unless it keeps peak busy threads to at most this proportion of blocking's
+     */
+    private static final double MAX_ASYNC_THREAD_RATIO = 0.5;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        int blockingThreads = run(false, clients);
+        int asyncThreads = run(true, clients);
+
+        System.out.printf("%d slow clients: peak busy server threads %d blocking, %d async%n",
+                clients, blockingThreads, asyncThreads);
+        if (asyncThreads > blockingThreads * MAX_ASYNC_THREAD_RATIO) {
+            throw new IllegalStateException(String.format("Asynchronous serving used %d busy server threads, more than " +
+                    "%.0f%% of the %d used by blocking serving", asyncThreads, MAX_ASYNC_THREAD_RATIO * 100, blockingThreads));
+        }
+    }
+
+    /**
+     * @return the peak number of busy server threads observed while slow clients were reading
+     */
+    private static int run(boolean async, int clients) throws Exception {
+        MarkdownAssetsConfiguration configuration = new MarkdownAssetsConfiguration();
+        configuration.setAsyncServing(async);
+
+        ExecutorService renderExecutor = Executors.newFixedThreadPool(2);
+        MarkdownAssetsServlet servlet = new MarkdownAssetsServlet(
+                RESOURCE_PATH,
+                "/docs/",
+                MarkdownAssetsBundle.DEFAULT_INDEX_FILE,
+                StandardCharsets.UTF_8,
+                configuration,
+                MarkdownAssetsBundle.DEFAULT_FLEXMARK_EXTENSIONS,
+                MarkdownAssetsBundle.DEFAULT_FLEXMARK_OPTIONS,
+                MarkdownAssetsBundle.DEFAULT_CACHE_SPEC,
+                renderExecutor,
+                new MarkdownAssetsMetrics(new MetricRegistry(), "load-test"));
+
+        QueuedThreadPool threadPool = new QueuedThreadPool(MAX_SERVER_THREADS, 8);
+        Server server = new Server(threadPool);
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+
+        ServletContextHandler context = new ServletContextHandler();
+        ServletHolder holder = new ServletHolder(servlet);
+        holder.setAsyncSupported(true);
+        context.addServlet(holder, "/docs/*");
+        server.setHandler(context);
+        server.start();
+
+        List<SlowClient> slowClients = new ArrayList<>();
+        try {
+            int port = connector.getLocalPort();
+
+            // Render the page up front, so that only writing is measured
+            new SlowClient(port, 0).readFully();
+
+            for (int i = 0; i < clients; i++) {
+                SlowClient client = new SlowClient(port, READ_INTERVAL_MILLIS);
+                slowClients.add(client);
+                client.start();
+            }
+
+            int peakBusyThreads = 0;
+            long end = System.currentTimeMillis() + SAMPLE_PERIOD_MILLIS;
+            while (System.currentTimeMillis() < end) {
+                peakBusyThreads = Math.max(peakBusyThreads, threadPool.getBusyThreads());
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+
+            System.out.printf("%s: peak busy server threads %d (%d clients)%n", async ? "async" : "blocking", peakBusyThreads, clients);
+            return peakBusyThreads;
+        } finally {
+            for (SlowClient client : slowClients) {
+                client.close();
+            }
+            server.stop();
+            renderExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * A client that requests the page and then reads it slowly, on its own thread.
+     */
+    private static class SlowClient extends Thread {
+
+        private final Socket socket;
+        private final long readIntervalMillis;
+
+        SlowClient(int port, long readIntervalMillis) throws IOException {
+            this.socket = new Socket();
+            // A small receive window makes the server's writes block (or become not ready) sooner
+            socket.setReceiveBufferSize(READ_CHUNK_SIZE);
+            socket.connect(new InetSocketAddress("localhost", port));
+            this.readIntervalMillis = readIntervalMillis;
+            setDaemon(true);
+
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /docs/index.md HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Accept-Encoding: identity\r\n" +
+                    "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+
+        @Override
+        public void run() {
+            try {
+                readFully();
+            } catch (IOException | InterruptedException e) {
+                // Closed at the end of the run
+            }
+        }
+
+        void readFully() throws IOException, InterruptedException {
+            InputStream in = socket.getInputStream();
+            byte[] chunk = new byte[READ_CHUNK_SIZE];
+            while (in.read(chunk) >= 0) {
+                if (readIntervalMillis > 0) {
+                    TimeUnit.MILLISECONDS.sleep(readIntervalMillis);
+                }
+            }
+            socket.close();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+    }
+}
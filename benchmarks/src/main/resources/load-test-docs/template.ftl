@@ -0,0 +1,13 @@
+<!DOCTYPE html>
+<html lang="en">
+<head>
+    <meta charset="UTF-8">
+    <title>${title}</title>
+</head>
+<body>
+<#-- Repeat the rendered page, so that a small source produces a response too large to sit in socket buffers -->
+<#list 1..2000 as i>
+    <@htmlFragment/>
+</#list>
+</body>
+</html>
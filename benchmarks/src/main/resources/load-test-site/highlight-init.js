@@ -0,0 +1,7 @@
+// A static asset served as-is, to exercise passthrough serving alongside rendered pages
+document.addEventListener("DOMContentLoaded", function () {
+    var blocks = document.querySelectorAll("pre code");
+    for (var i = 0; i < blocks.length; i++) {
+        blocks[i].classList.add("load-test");
+    }
+});
@@ -17,10 +17,24 @@ import com.vladsch.flexmark.util.options.MutableDataSet;
 import io.dropwizard.ConfiguredBundle;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Size;
+import org.rnorth.dropwizard.markdown.internal.CacheStatisticsTask;
+import org.rnorth.dropwizard.markdown.internal.InvalidatePagesTask;
+import org.rnorth.dropwizard.markdown.internal.MarkdownAssetsMetrics;
 import org.rnorth.dropwizard.markdown.internal.MarkdownAssetsServlet;
+import org.rnorth.dropwizard.markdown.internal.ResourceWatcher;
+import org.rnorth.dropwizard.markdown.internal.WarmPagesTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletRegistration;
 
 import java.nio.charset.Charset;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -44,7 +58,7 @@ public class MarkdownAssetsBundle implements ConfiguredBundle<MarkdownBundleConf
     public static final String DEFAULT_PATH = "/assets";
     public static final String DEFAULT_INDEX_FILE = "index.md";
     public static final String DEFAULT_SERVLET_MAPPING_NAME = "assets";
-    public static final CacheBuilderSpec DEFAULT_CACHE_SPEC = CacheBuilderSpec.parse("expireAfterWrite=5s");
+    public static final CacheBuilderSpec DEFAULT_CACHE_SPEC = CacheBuilderSpec.parse("refreshAfterWrite=5s");
 
     public static final List<Extension> DEFAULT_FLEXMARK_EXTENSIONS = ImmutableList.of(
             AnchorLinkExtension.create(),
@@ -62,6 +76,8 @@ public class MarkdownAssetsBundle implements ConfiguredBundle<MarkdownBundleConf
             .set(HtmlRenderer.GENERATE_HEADER_ID, true)
             .toImmutable();
 
+    private static final Logger logger = LoggerFactory.getLogger(MarkdownAssetsBundle.class);
+
     private String resourcePath = DEFAULT_PATH;
     private String uriPath = DEFAULT_PATH;
     private String indexFile = DEFAULT_INDEX_FILE;
@@ -69,6 +85,8 @@ public class MarkdownAssetsBundle implements ConfiguredBundle<MarkdownBundleConf
     private CacheBuilderSpec cacheBuilderSpec = DEFAULT_CACHE_SPEC;
     private List<Extension> extensions = DEFAULT_FLEXMARK_EXTENSIONS;
     private DataHolder options = DEFAULT_FLEXMARK_OPTIONS;
+    private MarkdownEngine engine = null;
+    private Size engineQuota = null;
 
     /**
      * Creates a new {@link MarkdownAssetsBundle} which serves up static assets from
@@ -124,7 +142,10 @@ public class MarkdownAssetsBundle implements ConfiguredBundle<MarkdownBundleConf
     }
 
     /**
-     * Fluent setter for {@code cacheBuilderSpec}
+     * Fluent setter for {@code cacheBuilderSpec}. With {@code refreshAfterWrite} (the default), pages are revalidated
+     * in the background once the refresh interval has passed, and are only re-rendered if their source has changed;
+     * the previously rendered page continues to be served meanwhile. With {@code expireAfterWrite}, pages are
+     * discarded and re-rendered on the next request after expiry.
      * @param cacheBuilderSpec the spec for the cache builder
      * @return
      */
@@ -153,28 +174,137 @@ public class MarkdownAssetsBundle implements ConfiguredBundle<MarkdownBundleConf
         return this;
     }
 
+    /**
+     * Fluent setter for {@code engine}
+     * @param engine a rendering engine, which may be shared with other bundles; its cache spec, maximum cache size and
+     *               render threads are used in place of this bundle's own
+     * @return
+     */
+    public MarkdownAssetsBundle withEngine(MarkdownEngine engine) {
+        return withEngine(engine, null);
+    }
+
+    /**
+     * Fluent setter for {@code engine}, with a quota of the engine's cache
+     * @param engine a rendering engine, which may be shared with other bundles; its cache spec, maximum cache size and
+     *               render threads are used in place of this bundle's own
+     * @param quota  maximum total size of this bundle's pages within the engine's cache, or null for no limit other
+     *               than the engine's own
+     * @return
+     */
+    public MarkdownAssetsBundle withEngine(MarkdownEngine engine, Size quota) {
+        this.engine = engine;
+        this.engineQuota = quota;
+        return this;
+    }
 
     @Override
     public void run(MarkdownBundleConfiguration configuration, Environment environment) throws Exception {
 
-        MarkdownAssetsServlet servlet =
-                new MarkdownAssetsServlet(
-                        resourcePath,
-                        uriPath,
-                        indexFile,
-                        Charset.defaultCharset(),
-                        configuration.getMarkdownAssetsConfiguration(),
-                        extensions,
-                        options,
-                        cacheBuilderSpec);
-
-        environment.servlets()
-                .addServlet(assetsName, servlet)
-                .addMapping(uriPath + "*");
+        MarkdownAssetsConfiguration assetsConfiguration = configuration.getMarkdownAssetsConfiguration();
+
+        MarkdownAssetsServlet servlet;
+        int renderCapacity;
+        if (engine != null) {
+            servlet = new MarkdownAssetsServlet(resourcePath, uriPath, indexFile, Charset.defaultCharset(),
+                    assetsConfiguration, extensions, options, engine.start(environment),
+                    engineQuota != null ? engineQuota.toBytes() : 0);
+            renderCapacity = engine.getRenderCapacity();
+        } else {
+            // Rendering is confined to a bounded pool, so that a burst of renders cannot exhaust Jetty's threads
+            int renderThreads = assetsConfiguration.getRenderThreads() > 0 ?
+                    assetsConfiguration.getRenderThreads() :
+                    Runtime.getRuntime().availableProcessors();
+            int renderQueueSize = assetsConfiguration.getRenderQueueSize();
+            servlet = createServlet(assetsConfiguration,
+                    environment.lifecycle()
+                            .executorService("markdown-render-" + assetsName + "-%d")
+                            .minThreads(renderThreads)
+                            .maxThreads(renderThreads)
+                            .workQueue(renderQueueSize > 0 ? new ArrayBlockingQueue<>(renderQueueSize) : new SynchronousQueue<>())
+                            .rejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy())
+                            .build(),
+                    new MarkdownAssetsMetrics(environment.metrics(), assetsName));
+            renderCapacity = renderThreads + renderQueueSize;
+        }
+
+        if (assetsConfiguration.isWatchForChanges()) {
+            if ("file".equals(servlet.getResourceRootURL().getScheme())) {
+                environment.lifecycle().manage(
+                        new ResourceWatcher(servlet, assetsConfiguration.getWatchCoalescePeriod().toMilliseconds()));
+            } else {
+                logger.warn("Resource root ({}) is not a file system directory, so cannot be watched for changes",
+                        servlet.getResourceRootURL());
+            }
+        }
+
+        int warmUpThreads = assetsConfiguration.getWarmUpThreads() > 0 ?
+                assetsConfiguration.getWarmUpThreads() :
+                Runtime.getRuntime().availableProcessors();
+
+        // Index before warming the cache, so that the pages parsed for the index are rendered from those parses
+        if (assetsConfiguration.isEnableSearch() || assetsConfiguration.isEnableSiteNavigation()) {
+            servlet.indexPages(warmUpThreads);
+        }
+
+        // Any more would have their renders rejected by the render executor
+        int warmUpParallelism = Math.min(warmUpThreads, renderCapacity);
+
+        // Render everything up front, before Jetty starts accepting requests
+        if (assetsConfiguration.isWarmCacheOnStartup()) {
+            servlet.warmCache(warmUpParallelism);
+        }
+
+        // Cached pages can be discarded, re-rendered and inspected from the admin port while running
+        environment.admin().addTask(new InvalidatePagesTask(assetsName, servlet));
+        environment.admin().addTask(new WarmPagesTask(assetsName, servlet, warmUpParallelism));
+        environment.admin().addTask(new CacheStatisticsTask(assetsName, servlet, environment.getObjectMapper()));
+
+        ServletRegistration.Dynamic registration = environment.servlets().addServlet(assetsName, servlet);
+        registration.setAsyncSupported(true);
+        registration.addMapping(uriPath + "*");
+    }
+
+    MarkdownAssetsServlet createServlet(MarkdownAssetsConfiguration assetsConfiguration,
+                                        ExecutorService renderExecutor,
+                                        MarkdownAssetsMetrics metrics) {
+        // A cache spec in configuration takes precedence over the one provided in code
+        CacheBuilderSpec effectiveCacheSpec = assetsConfiguration.getCacheSpec() != null ?
+                CacheBuilderSpec.parse(assetsConfiguration.getCacheSpec()) :
+                cacheBuilderSpec;
+
+        return new MarkdownAssetsServlet(
+                resourcePath,
+                uriPath,
+                indexFile,
+                Charset.defaultCharset(),
+                assetsConfiguration,
+                extensions,
+                options,
+                effectiveCacheSpec,
+                renderExecutor,
+                metrics);
+    }
+
+    String getAssetsName() {
+        return assetsName;
+    }
+
+    /**
+     * @return path of the page pack relative to the class path root
+     */
+    String getPagePackPath() {
+        return (resourcePath.endsWith("/") ? resourcePath : resourcePath + "/").substring(1) + MarkdownAssetsServlet.PAGE_PACK_NAME;
     }
 
     @Override
     public void initialize(Bootstrap<?> bootstrap) {
-
+        RenderPagePackCommand<?> command = new RenderPagePackCommand<>(this, bootstrap.getApplication().getConfigurationClass());
+        // Commands are looked up by name, so a second command of the same name would never be run
+        if (bootstrap.getCommands().stream().anyMatch(existing -> existing.getName().equals(command.getName()))) {
+            throw new IllegalStateException("A command named " + command.getName() + " has already been added - give " +
+                    "each MarkdownAssetsBundle a distinct name with withAssetsName(...)");
+        }
+        bootstrap.addCommand(command);
     }
 }
@@ -1,7 +1,10 @@
 package org.rnorth.dropwizard.markdown;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 /**
@@ -9,30 +12,193 @@ import javax.validation.constraints.NotNull;
  */
 public class MarkdownAssetsConfiguration {
 
-    @NotNull
+    /*
+     * Overrides the bundle's cache spec when set
+     */
+    @JsonProperty
+    private String cacheSpec = null;
+
+    /*
+     * Upper bound on the total size of cached pages (including compressed variants), if set
+     */
     @JsonProperty
-    private String cacheSpec = MarkdownAssetsBundle.DEFAULT_CACHE_SPEC.toParsableString();
+    private Size maximumCacheSize = null;
 
+    /*
+     * Load mermaid.js in rendered pages, so that mermaid diagrams are drawn
+     */
     @NotNull
     @JsonProperty
     private boolean enableMermaid = true;
 
+    /*
+     * Google Analytics tracking ID for rendered pages; no tracking if empty
+     */
     @NotNull
     @JsonProperty
     private String googleTrackingId = "";
 
+    /*
+     * Load highlight.js in rendered pages, so that fenced code blocks are highlighted in the browser
+     */
     @NotNull
     @JsonProperty
     private boolean enableHlJs = true;
 
+    /*
+     * Highlight fenced code blocks when pages are rendered, instead of in the browser with highlight.js
+     */
+    @NotNull
+    @JsonProperty
+    private boolean serverSideHighlighting = false;
+
+    /*
+     * Render include directives (<!-- include: path.md -->) as the content of the markdown file they name
+     */
+    @NotNull
+    @JsonProperty
+    private boolean enableIncludes = false;
+
+    /*
+     * Copyright notice shown at the foot of rendered pages; none if empty
+     */
     @NotNull
     @JsonProperty
     private String copyrightFooter = "";
 
+    /*
+     * Link pages to the stylesheet at a URL containing a hash of its content, which browsers may cache indefinitely
+     */
+    @NotNull
+    @JsonProperty
+    private boolean versionedStylesheetUrl = false;
+
+    /*
+     * Include the stylesheet in each rendered page, rather than linking to it
+     */
+    @NotNull
+    @JsonProperty
+    private boolean inlineStylesheet = false;
+
+    /*
+     * Cache-Control header for rendered markdown pages, e.g. "no-cache" or "public, max-age=300"; none if null
+     */
+    @JsonProperty
+    private String pageCacheControl = null;
+
+    /*
+     * Index every page for full-text search at startup, and serve search results beneath the URI path
+     */
+    @NotNull
+    @JsonProperty
+    private boolean enableSearch = false;
+
+    /*
+     * Build navigation for the whole site from the headings of every page, for page templates and clients
+     */
+    @NotNull
+    @JsonProperty
+    private boolean enableSiteNavigation = false;
+
+    /*
+     * Render every markdown page into the cache at startup, before any requests are served
+     */
+    @NotNull
+    @JsonProperty
+    private boolean warmCacheOnStartup = false;
+
+    /*
+     * Number of threads that warm the cache and index pages at startup (0 for one per processor)
+     */
+    @Min(0)
+    @JsonProperty
+    private int warmUpThreads = 0;
+
+    /*
+     * Watch the resource directory for changes and invalidate the affected cached pages (file system resources only)
+     */
+    @NotNull
+    @JsonProperty
+    private boolean watchForChanges = false;
+
+    /*
+     * Bursts of changes are coalesced until none have been seen for this long, for no more than eight periods
+     */
+    @NotNull
+    @JsonProperty
+    private Duration watchCoalescePeriod = Duration.milliseconds(250);
+
+    /*
+     * Hold cached pages in direct (off-heap) buffers rather than on the heap
+     */
+    @NotNull
+    @JsonProperty
+    private boolean directBuffers = false;
+
+    /*
+     * Rendering happens on a dedicated pool of this many threads (0 for one per processor), with a bounded queue
+     */
+    @Min(0)
+    @JsonProperty
+    private int renderThreads = 0;
+
+    /*
+     * Number of renders that may wait for a render thread before further renders are rejected
+     */
+    @Min(0)
+    @JsonProperty
+    private int renderQueueSize = 64;
+
+    /*
+     * Longest a request waits for a render before serving the previous version of the page, or 503
+     */
+    @NotNull
+    @JsonProperty
+    private Duration renderTimeout = Duration.seconds(10);
+
+    /*
+     * Markdown sources larger than this are not rendered
+     */
+    @NotNull
+    @JsonProperty
+    private Size maxSourceSize = Size.megabytes(8);
+
+    /*
+     * Serve pages asynchronously: renders complete off the request thread, and pages are written without blocking
+     */
+    @NotNull
+    @JsonProperty
+    private boolean asyncServing = false;
+
+    /*
+     * Directory in which rendered pages are stored, so that they survive restarts; disabled if not set
+     */
+    @JsonProperty
+    private String diskCacheDirectory = null;
+
+    /*
+     * The least recently used pages stored on disk are deleted once they exceed this size
+     */
+    @NotNull
+    @JsonProperty
+    private Size diskCacheMaxSize = Size.megabytes(256);
+
     public String getCacheSpec() {
         return cacheSpec;
     }
 
+    public void setCacheSpec(String cacheSpec) {
+        this.cacheSpec = cacheSpec;
+    }
+
+    public Size getMaximumCacheSize() {
+        return maximumCacheSize;
+    }
+
+    public void setMaximumCacheSize(Size maximumCacheSize) {
+        this.maximumCacheSize = maximumCacheSize;
+    }
+
     public boolean isEnableMermaid() {
         return enableMermaid;
     }
@@ -49,6 +215,22 @@ public class MarkdownAssetsConfiguration {
         this.enableHlJs = enableHlJs;
     }
 
+    public boolean isServerSideHighlighting() {
+        return serverSideHighlighting;
+    }
+
+    public void setServerSideHighlighting(boolean serverSideHighlighting) {
+        this.serverSideHighlighting = serverSideHighlighting;
+    }
+
+    public boolean isEnableIncludes() {
+        return enableIncludes;
+    }
+
+    public void setEnableIncludes(boolean enableIncludes) {
+        this.enableIncludes = enableIncludes;
+    }
+
     public String getCopyrightFooter() {
         return copyrightFooter;
     }
@@ -56,4 +238,140 @@ public class MarkdownAssetsConfiguration {
     public void setCopyrightFooter(String copyrightFooter) {
         this.copyrightFooter = copyrightFooter;
     }
+
+    public boolean isVersionedStylesheetUrl() {
+        return versionedStylesheetUrl;
+    }
+
+    public void setVersionedStylesheetUrl(boolean versionedStylesheetUrl) {
+        this.versionedStylesheetUrl = versionedStylesheetUrl;
+    }
+
+    public boolean isInlineStylesheet() {
+        return inlineStylesheet;
+    }
+
+    public void setInlineStylesheet(boolean inlineStylesheet) {
+        this.inlineStylesheet = inlineStylesheet;
+    }
+
+    public String getPageCacheControl() {
+        return pageCacheControl;
+    }
+
+    public void setPageCacheControl(String pageCacheControl) {
+        this.pageCacheControl = pageCacheControl;
+    }
+
+    public boolean isEnableSearch() {
+        return enableSearch;
+    }
+
+    public void setEnableSearch(boolean enableSearch) {
+        this.enableSearch = enableSearch;
+    }
+
+    public boolean isEnableSiteNavigation() {
+        return enableSiteNavigation;
+    }
+
+    public void setEnableSiteNavigation(boolean enableSiteNavigation) {
+        this.enableSiteNavigation = enableSiteNavigation;
+    }
+
+    public boolean isWarmCacheOnStartup() {
+        return warmCacheOnStartup;
+    }
+
+    public void setWarmCacheOnStartup(boolean warmCacheOnStartup) {
+        this.warmCacheOnStartup = warmCacheOnStartup;
+    }
+
+    public int getWarmUpThreads() {
+        return warmUpThreads;
+    }
+
+    public void setWarmUpThreads(int warmUpThreads) {
+        this.warmUpThreads = warmUpThreads;
+    }
+
+    public boolean isWatchForChanges() {
+        return watchForChanges;
+    }
+
+    public void setWatchForChanges(boolean watchForChanges) {
+        this.watchForChanges = watchForChanges;
+    }
+
+    public Duration getWatchCoalescePeriod() {
+        return watchCoalescePeriod;
+    }
+
+    public void setWatchCoalescePeriod(Duration watchCoalescePeriod) {
+        this.watchCoalescePeriod = watchCoalescePeriod;
+    }
+
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    public void setDirectBuffers(boolean directBuffers) {
+        this.directBuffers = directBuffers;
+    }
+
+    public int getRenderThreads() {
+        return renderThreads;
+    }
+
+    public void setRenderThreads(int renderThreads) {
+        this.renderThreads = renderThreads;
+    }
+
+    public int getRenderQueueSize() {
+        return renderQueueSize;
+    }
+
+    public void setRenderQueueSize(int renderQueueSize) {
+        this.renderQueueSize = renderQueueSize;
+    }
+
+    public Duration getRenderTimeout() {
+        return renderTimeout;
+    }
+
+    public void setRenderTimeout(Duration renderTimeout) {
+        this.renderTimeout = renderTimeout;
+    }
+
+    public Size getMaxSourceSize() {
+        return maxSourceSize;
+    }
+
+    public void setMaxSourceSize(Size maxSourceSize) {
+        this.maxSourceSize = maxSourceSize;
+    }
+
+    public boolean isAsyncServing() {
+        return asyncServing;
+    }
+
+    public void setAsyncServing(boolean asyncServing) {
+        this.asyncServing = asyncServing;
+    }
+
+    public String getDiskCacheDirectory() {
+        return diskCacheDirectory;
+    }
+
+    public void setDiskCacheDirectory(String diskCacheDirectory) {
+        this.diskCacheDirectory = diskCacheDirectory;
+    }
+
+    public Size getDiskCacheMaxSize() {
+        return diskCacheMaxSize;
+    }
+
+    public void setDiskCacheMaxSize(Size diskCacheMaxSize) {
+        this.diskCacheMaxSize = diskCacheMaxSize;
+    }
 }
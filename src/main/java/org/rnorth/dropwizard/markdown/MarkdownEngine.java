@@ -0,0 +1,123 @@
+package org.rnorth.dropwizard.markdown;
+
+import com.google.common.cache.CacheBuilderSpec;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Size;
+import org.rnorth.dropwizard.markdown.internal.MarkdownAssetsMetrics;
+import org.rnorth.dropwizard.markdown.internal.RenderEngine;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * <p>A rendering engine that several {@link MarkdownAssetsBundle}s can share, via
+ * {@link MarkdownAssetsBundle#withEngine(MarkdownEngine)}, so that they render on one bounded pool of threads and cache
+ * pages within one memory budget, rather than each being provisioned for its own peak.</p>
+ *
+ * <p>Bundles sharing an engine use its cache spec, maximum cache size, render threads and metrics in place of their
+ * own. Each may be given a quota of the engine's cache, so that one bundle cannot take the whole budget.</p>
+ */
+public class MarkdownEngine {
+
+    public static final String DEFAULT_NAME = "markdown";
+    public static final int DEFAULT_RENDER_QUEUE_SIZE = 64;
+
+    private String name = DEFAULT_NAME;
+    private CacheBuilderSpec cacheBuilderSpec = MarkdownAssetsBundle.DEFAULT_CACHE_SPEC;
+    private Size maximumCacheSize = null;
+    private int renderThreads = 0;
+    private int renderQueueSize = DEFAULT_RENDER_QUEUE_SIZE;
+
+    private RenderEngine started;
+
+    /**
+     * Fluent setter for {@code name}
+     * @param name name of the engine, used to name its metrics and threads
+     * @return
+     */
+    public MarkdownEngine withName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    /**
+     * Fluent setter for {@code cacheBuilderSpec}
+     * @param cacheBuilderSpec the spec for the cache shared by all bundles using this engine
+     * @return
+     */
+    public MarkdownEngine withCacheBuilderSpec(CacheBuilderSpec cacheBuilderSpec) {
+        this.cacheBuilderSpec = cacheBuilderSpec;
+        return this;
+    }
+
+    /**
+     * Fluent setter for {@code maximumCacheSize}
+     * @param maximumCacheSize upper bound on the total size of pages cached by all bundles using this engine
+     * @return
+     */
+    public MarkdownEngine withMaximumCacheSize(Size maximumCacheSize) {
+        this.maximumCacheSize = maximumCacheSize;
+        return this;
+    }
+
+    /**
+     * Fluent setter for {@code renderThreads}
+     * @param renderThreads number of threads rendering for all bundles using this engine; 0 for one per processor
+     * @return
+     */
+    public MarkdownEngine withRenderThreads(int renderThreads) {
+        this.renderThreads = renderThreads;
+        return this;
+    }
+
+    /**
+     * Fluent setter for {@code renderQueueSize}
+     * @param renderQueueSize number of renders that may wait for a thread before further renders are rejected
+     * @return
+     */
+    public MarkdownEngine withRenderQueueSize(int renderQueueSize) {
+        this.renderQueueSize = renderQueueSize;
+        return this;
+    }
+
+    /**
+     * @return the number of renders that can be running or waiting at once
+     */
+    int getRenderCapacity() {
+        return effectiveRenderThreads() + renderQueueSize;
+    }
+
+    /**
+     * Start the engine within an environment, if it has not already been started by another bundle.
+     *
+     * @param environment the application environment, which manages the engine's render and quota threads
+     * @return the started engine
+     */
+    synchronized RenderEngine start(Environment environment) {
+        if (started == null) {
+            int threads = effectiveRenderThreads();
+            ExecutorService renderExecutor = environment.lifecycle()
+                    .executorService("markdown-render-" + name + "-%d")
+                    .minThreads(threads)
+                    .maxThreads(threads)
+                    .workQueue(renderQueueSize > 0 ? new ArrayBlockingQueue<>(renderQueueSize) : new SynchronousQueue<>())
+                    .rejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy())
+                    .build();
+            // Evicts pages to keep bundles within their quotas, off the threads that stored them
+            ExecutorService quotaEnforcer = environment.lifecycle()
+                    .executorService("markdown-cache-quota-" + name + "-%d")
+                    .minThreads(1)
+                    .maxThreads(1)
+                    .build();
+            started = new RenderEngine(renderExecutor, quotaEnforcer, new MarkdownAssetsMetrics(environment.metrics(), name),
+                    cacheBuilderSpec, maximumCacheSize);
+        }
+        return started;
+    }
+
+    private int effectiveRenderThreads() {
+        return renderThreads > 0 ? renderThreads : Runtime.getRuntime().availableProcessors();
+    }
+}
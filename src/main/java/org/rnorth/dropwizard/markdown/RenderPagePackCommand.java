@@ -0,0 +1,73 @@
+package org.rnorth.dropwizard.markdown;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.dropwizard.Configuration;
+import io.dropwizard.cli.ConfiguredCommand;
+import io.dropwizard.setup.Bootstrap;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.rnorth.dropwizard.markdown.internal.MarkdownAssetsMetrics;
+import org.rnorth.dropwizard.markdown.internal.MarkdownAssetsServlet;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * <p>Command that renders every markdown page served by a {@link MarkdownAssetsBundle} into a page pack, using the
+ * bundle's extensions, options and template and the application's configuration.</p>
+ *
+ * <p>The pack is written beneath a class path root directory given as an argument (e.g. {@code target/classes}),
+ * in the bundle's resource path. When it is packaged along with the markdown sources, the bundle serves pages from the
+ * pack instead of rendering them, falling back to rendering for any page that has changed since it was built.</p>
+ *
+ * @param <T> the application's configuration class
+ */
+public class RenderPagePackCommand<T extends Configuration> extends ConfiguredCommand<T> {
+
+    private static final String CLASSES_DIRECTORY = "classesDirectory";
+
+    private final MarkdownAssetsBundle bundle;
+    private final Class<T> configurationClass;
+
+    /**
+     * @param bundle             the bundle whose pages should be rendered
+     * @param configurationClass the application's configuration class, which must implement
+     *                           {@link MarkdownBundleConfiguration}
+     */
+    public RenderPagePackCommand(MarkdownAssetsBundle bundle, Class<T> configurationClass) {
+        super("render-" + bundle.getAssetsName(), "Renders markdown assets into a page pack, to be served without rendering");
+        this.bundle = bundle;
+        this.configurationClass = configurationClass;
+    }
+
+    @Override
+    protected Class<T> getConfigurationClass() {
+        return configurationClass;
+    }
+
+    @Override
+    public void configure(Subparser subparser) {
+        super.configure(subparser);
+        subparser.addArgument(CLASSES_DIRECTORY)
+                .metavar("classes-directory")
+                .help("class path root directory to write the page pack beneath, e.g. target/classes");
+    }
+
+    @Override
+    protected void run(Bootstrap<T> bootstrap, Namespace namespace, T configuration) throws Exception {
+        if (!(configuration instanceof MarkdownBundleConfiguration)) {
+            throw new IllegalStateException("Configuration class (" + configurationClass.getName() + ") does not implement " +
+                    MarkdownBundleConfiguration.class.getSimpleName());
+        }
+        MarkdownAssetsConfiguration assetsConfiguration =
+                ((MarkdownBundleConfiguration) configuration).getMarkdownAssetsConfiguration();
+
+        MarkdownAssetsServlet servlet = bundle.createServlet(assetsConfiguration,
+                MoreExecutors.newDirectExecutorService(),
+                new MarkdownAssetsMetrics(new MetricRegistry(), bundle.getAssetsName()));
+
+        Path packFile = Paths.get(namespace.getString(CLASSES_DIRECTORY), bundle.getPagePackPath());
+        servlet.writePagePack(packFile);
+    }
+}
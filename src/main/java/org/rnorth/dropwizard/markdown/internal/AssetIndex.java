@@ -0,0 +1,261 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.dropwizard.servlets.assets.ResourceURL;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Index from request path to the asset that should be served for it, built by scanning the resource root.
+ * <p>
+ * For {@code jar:} roots the contents cannot change, so the index is complete: any markdown path that is not in it
+ * does not exist, and resolving a path never touches the class loader. For other roots (typically {@code file:}
+ * directories during development), paths missing from the index are looked up live, and the results - including
+ * 'not found' - are cached for a short time.
+ */
+class AssetIndex {
+
+    static final String STYLESHEET_NAME = "dropwizard-markdown.css";
+    static final String DEFAULT_STYLESHEET = "/default-dropwizard-markdown.css";
+
+    /*
+     * Bounds for cached live lookups, so that requests for random URLs cannot grow the cache without limit
+     */
+    private static final int MAX_CACHED_LOOKUPS = 10_000;
+    private static final long LOOKUP_TTL_SECONDS = 10;
+
+    private final String resourcePath;
+    private final String indexFile;
+    private final URI resourceRootURL;
+    private final boolean complete;
+    private final ResolvedAsset defaultStylesheet;
+
+    private volatile Map<String, ResolvedAsset> index = ImmutableMap.of();
+    private final Cache<String, ResolvedAsset> lookups = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_LOOKUPS)
+            .expireAfterWrite(LOOKUP_TTL_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    private static final Logger logger = LoggerFactory.getLogger(AssetIndex.class);
+
+    /**
+     * @param resourcePath    the class path location that assets are loaded from
+     * @param indexFile       the filename to use when directories are requested
+     * @param resourceRootURL URI of {@code resourcePath}
+     * @throws IOException if the resource root could not be scanned
+     */
+    AssetIndex(@NotNull String resourcePath, @NotNull String indexFile, @NotNull URI resourceRootURL) throws IOException {
+        this.resourcePath = resourcePath;
+        this.indexFile = indexFile;
+        this.resourceRootURL = resourceRootURL;
+        this.complete = "jar".equals(resourceRootURL.getScheme());
+
+        URL defaultStylesheetUrl = this.getClass().getResource(DEFAULT_STYLESHEET);
+        this.defaultStylesheet = new ResolvedAsset(ResolvedAsset.Kind.STYLESHEET, defaultStylesheetUrl,
+                ResourceURL.getLastModified(defaultStylesheetUrl), ResourceTree.size(defaultStylesheetUrl));
+
+        rescan();
+    }
+
+    /**
+     * Rebuild the index from the current contents of the resource root.
+     *
+     * @throws IOException if the resource root could not be scanned
+     */
+    void rescan() throws IOException {
+        List<String> files;
+        try {
+            files = ResourceTree.listFiles(resourceRootURL);
+        } catch (IllegalArgumentException e) {
+            logger.info("Resource root ({}) cannot be scanned, so assets will be resolved on request", resourceRootURL);
+            files = ImmutableList.of();
+        }
+
+        Map<String, ResolvedAsset> newIndex = new HashMap<>();
+        for (String file : files) {
+            String path = "/" + file;
+            if (!path.endsWith(".md") && !path.endsWith(STYLESHEET_NAME)) {
+                continue;
+            }
+
+            URL url = lookup(path);
+            if (url == null) {
+                continue;
+            }
+            ResolvedAsset asset = new ResolvedAsset(
+                    path.endsWith(".md") ? ResolvedAsset.Kind.MARKDOWN : ResolvedAsset.Kind.STYLESHEET,
+                    url,
+                    complete ? ResourceURL.getLastModified(url) : ResolvedAsset.UNKNOWN,
+                    complete ? ResourceTree.size(url) : ResolvedAsset.UNKNOWN);
+            newIndex.put(path, asset);
+
+            // Requests for a directory without a trailing slash are served its index file
+            if (path.endsWith("/" + indexFile) && path.length() > indexFile.length() + 1) {
+                newIndex.put(path.substring(0, path.length() - indexFile.length() - 1), asset);
+            }
+        }
+
+        index = ImmutableMap.copyOf(newIndex);
+        lookups.invalidateAll();
+    }
+
+    /**
+     * @param path request path, relative to the servlet's URI path (with any directory index file already appended
+     *             if the path ended with a slash)
+     * @return the asset to serve for the path
+     * @throws IOException if the path could not be resolved
+     */
+    @NotNull
+    ResolvedAsset resolve(@NotNull String path) throws IOException {
+        if (path.endsWith("/" + PagePack.PACK_NAME)) {
+            // Not an asset in its own right
+            return ResolvedAsset.NOT_FOUND;
+        }
+
+        ResolvedAsset asset = index.get(path);
+        if (asset != null) {
+            return asset;
+        }
+
+        if (complete) {
+            if (path.endsWith(".md")) {
+                return ResolvedAsset.NOT_FOUND;
+            } else if (path.endsWith(STYLESHEET_NAME)) {
+                return defaultStylesheet;
+            } else {
+                return ResolvedAsset.PASSTHROUGH;
+            }
+        }
+
+        try {
+            return lookups.get(path, () -> resolveLive(path));
+        } catch (ExecutionException e) {
+            throw new IOException("Asset path (" + path + ") could not be resolved", e.getCause());
+        }
+    }
+
+    /**
+     * @return all indexed markdown assets
+     */
+    @NotNull
+    List<ResolvedAsset> markdownAssets() {
+        return index.entrySet().stream()
+                .filter(entry -> entry.getKey().endsWith(".md"))
+                .map(Map.Entry::getValue)
+                .filter(asset -> asset.kind == ResolvedAsset.Kind.MARKDOWN)
+                .collect(Collectors.toList());
+    }
+
+    private ResolvedAsset resolveLive(String path) throws URISyntaxException {
+        URL url = lookup(path);
+
+        if (url != null && ResourceURL.isDirectory(url)) {
+            path = path + "/" + indexFile;
+            url = lookup(path);
+        }
+
+        if (path.endsWith(".md")) {
+            if (url == null) {
+                return ResolvedAsset.NOT_FOUND;
+            }
+            if (!isWithinRoot(url)) {
+                return ResolvedAsset.NOT_FOUND;
+            }
+            return new ResolvedAsset(ResolvedAsset.Kind.MARKDOWN, url, ResolvedAsset.UNKNOWN, ResolvedAsset.UNKNOWN);
+
+        } else if (path.endsWith(STYLESHEET_NAME)) {
+            if (url == null) {
+                // no override provided - use default
+                return defaultStylesheet;
+            }
+            if (!isWithinRoot(url)) {
+                return ResolvedAsset.NOT_FOUND;
+            }
+            return new ResolvedAsset(ResolvedAsset.Kind.STYLESHEET, url, ResolvedAsset.UNKNOWN, ResolvedAsset.UNKNOWN);
+
+        } else {
+            return ResolvedAsset.PASSTHROUGH;
+        }
+    }
+
+    private boolean isWithinRoot(URL url) {
+        // Content path was outside of the resource root path - path traversal attempt?
+        if (!url.toString().startsWith(resourceRootURL.toString())) {
+            logger.warn("Resolved asset URL ({}) was outside of resource root ({}) - possible path traversal attempt?", url, resourceRootURL);
+            return false;
+        }
+        return true;
+    }
+
+    private URL lookup(String path) {
+        if (resourcePath.endsWith("/") && path.startsWith("/")) {
+            return this.getClass().getResource(resourcePath + path.substring(1));
+        }
+        return this.getClass().getResource(resourcePath + path);
+    }
+
+    /**
+     * The outcome of resolving a request path.
+     */
+    static final class ResolvedAsset {
+
+        enum Kind {
+            /** A markdown source, to be rendered */
+            MARKDOWN,
+            /** The bundle stylesheet (an override in the resource root, or the default) */
+            STYLESHEET,
+            /** Some other asset, which is served by the wrapped AssetServlet */
+            PASSTHROUGH,
+            /** A markdown source which does not exist */
+            NOT_FOUND
+        }
+
+        static final long UNKNOWN = -1;
+
+        static final ResolvedAsset PASSTHROUGH = new ResolvedAsset(Kind.PASSTHROUGH, null, UNKNOWN, UNKNOWN);
+        static final ResolvedAsset NOT_FOUND = new ResolvedAsset(Kind.NOT_FOUND, null, UNKNOWN, UNKNOWN);
+
+        final Kind kind;
+        final URL url;
+        private final long lastModified;
+        private final long size;
+
+        ResolvedAsset(Kind kind, URL url, long lastModified, long size) {
+            this.kind = kind;
+            this.url = url;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        /**
+         * @return the last modified time of the asset's source - as recorded when indexed if the source cannot change,
+         * or otherwise as of now
+         */
+        long lastModified() {
+            return lastModified != UNKNOWN ? lastModified : ResourceURL.getLastModified(url);
+        }
+
+        /**
+         * @return the size of the asset's source in bytes - as recorded when indexed if the source cannot change, or
+         * otherwise as of now
+         */
+        long size() {
+            return size != UNKNOWN ? size : ResourceTree.size(url);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.codahale.metrics.Meter;
+import org.eclipse.jetty.server.HttpOutput;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a cached page to an asynchronous response without blocking, a chunk at a time whenever the client is ready
+ * to receive more, so that slow clients do not each hold a container thread for the duration of the write.
+ * <p>
+ * Chunks are never copied when they can be written from the page's own (immutable) buffers - which is always the
+ * case under Jetty, and for heap-held pages otherwise - because containers may keep a reference to the bytes being
+ * written until the write completes.
+ */
+class AsyncPageWriter implements WriteListener {
+
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream outputStream;
+    private final ByteBuffer content;
+    private final byte[] array;
+    private final Meter bytesWritten;
+    private final int length;
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncPageWriter.class);
+
+    /**
+     * @param asyncContext context of the request being responded to, which is completed once the page is written
+     * @param outputStream the response's output stream
+     * @param content      content to write, from its position to its limit
+     * @param array        array backing {@code content} at the same indices, or null if it is not backed by one
+     * @param bytesWritten meter to mark with the number of bytes written
+     */
+    AsyncPageWriter(@NotNull AsyncContext asyncContext,
+                    @NotNull ServletOutputStream outputStream,
+                    @NotNull ByteBuffer content,
+                    @Nullable byte[] array,
+                    @NotNull Meter bytesWritten) {
+        this.asyncContext = asyncContext;
+        this.outputStream = outputStream;
+        this.content = content;
+        this.array = array;
+        this.bytesWritten = bytesWritten;
+        this.length = content.remaining();
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        while (outputStream.isReady()) {
+            if (!content.hasRemaining()) {
+                bytesWritten.mark(length);
+                asyncContext.complete();
+                return;
+            }
+
+            int chunkLength = Math.min(CHUNK_SIZE, content.remaining());
+            int position = content.position();
+            content.position(position + chunkLength);
+
+            if (outputStream instanceof HttpOutput) {
+                ByteBuffer chunk = content.duplicate();
+                chunk.position(position).limit(position + chunkLength);
+                ((HttpOutput) outputStream).write(chunk);
+            } else if (array != null) {
+                outputStream.write(array, position, chunkLength);
+            } else {
+                byte[] chunk = new byte[chunkLength];
+                ByteBuffer source = content.duplicate();
+                source.position(position);
+                source.get(chunk);
+                outputStream.write(chunk);
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        // Typically the client went away
+        logger.debug("Page could not be written to client", t);
+        asyncContext.complete();
+    }
+}
@@ -0,0 +1,84 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A single byte range requested with a {@code Range} header, resolved against the length of a representation.
+ * <p>
+ * Only single ranges are supported; a request for several ranges is treated as a request for the whole
+ * representation, as RFC 7233 allows.
+ */
+final class ByteRange {
+
+    /**
+     * A range that cannot be satisfied, to be answered with {@code 416 Range Not Satisfiable}
+     */
+    static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    /** First byte of the range */
+    final long start;
+    /** Last byte of the range, inclusive */
+    final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @param header value of the {@code Range} header
+     * @param length length of the representation
+     * @return the requested range, {@link #UNSATISFIABLE}, or null if the whole representation should be sent
+     */
+    @Nullable
+    static ByteRange parse(@Nullable String header, long length) {
+        if (header == null || !header.startsWith(BYTES_UNIT) || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring(BYTES_UNIT.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // Suffix range: the final N bytes
+                long suffixLength = Long.parseLong(last);
+                if (suffixLength <= 0) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(0, length - suffixLength), length - 1);
+            }
+
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start >= length) {
+                return UNSATISFIABLE;
+            }
+            if (end < start) {
+                // Syntactically invalid, so ignored
+                return null;
+            }
+            return new ByteRange(start, end);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    long length() {
+        return end - start + 1;
+    }
+
+    /**
+     * @param length length of the whole representation
+     * @return value of the {@code Content-Range} header for this range
+     */
+    String contentRange(long length) {
+        return this == UNSATISFIABLE ? "bytes */" + length : "bytes " + start + "-" + end + "/" + length;
+    }
+}
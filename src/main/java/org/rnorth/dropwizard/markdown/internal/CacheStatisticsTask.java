@@ -0,0 +1,35 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.servlets.tasks.Task;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.PrintWriter;
+
+/**
+ * Admin task that reports statistics for a bundle's page cache as JSON (see
+ * {@link MarkdownAssetsServlet#cacheStatistics()}) - e.g.
+ * {@code curl -X POST http://localhost:8081/tasks/cache-stats-assets}.
+ */
+public class CacheStatisticsTask extends Task {
+
+    private final MarkdownAssetsServlet servlet;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * @param assetsName   name of the bundle's servlet mapping, which the task is named after
+     * @param servlet      servlet whose cache should be reported on
+     * @param objectMapper mapper to write the statistics with
+     */
+    public CacheStatisticsTask(@NotNull String assetsName, @NotNull MarkdownAssetsServlet servlet, @NotNull ObjectMapper objectMapper) {
+        super("cache-stats-" + assetsName);
+        this.servlet = servlet;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+        output.println(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(servlet.cacheStatistics()));
+    }
+}
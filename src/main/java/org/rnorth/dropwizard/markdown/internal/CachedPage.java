@@ -1,21 +1,264 @@
 package org.rnorth.dropwizard.markdown.internal;
 
+import com.google.common.base.Preconditions;
 import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by rnorth on 29/09/2016.
  */
 class CachedPage {
 
-    public final byte[] renderedBytes;
+    /*
+     * Pages smaller than this are not worth compressing
+     */
+    static final int MIN_COMPRESSIBLE_SIZE = 256;
+
+    /*
+     * Rough allowances for object headers, ETag strings etc. when weighing pages
+     */
+    private static final int PAGE_OVERHEAD = 256;
+    private static final int VARIANT_OVERHEAD = 128;
+
+    /*
+     * Heap buffers with more than 1/8 unused capacity are trimmed rather than retained
+     */
+    private static final int MAX_SLACK_DIVISOR = 8;
+
     public final long lastModifiedTime;
     public final String eTag;
     public final String mimeType;
 
+    /*
+     * Value the page's ETags are derived from, kept so that conditional requests can be validated without re-deriving it
+     */
+    final String eTagBase;
+
+    /*
+     * Pre-encoded representations of the rendered page, including the identity encoding
+     */
+    private final Map<ContentEncoding, Variant> variants = new EnumMap<>(ContentEncoding.class);
+
     public CachedPage(byte[] renderedBytes, long lastModifiedTime, String mimeType) {
-        this.renderedBytes = renderedBytes;
+        this(renderedBytes, lastModifiedTime, mimeType, false);
+    }
+
+    /**
+     * @param renderedBytes    the rendered page
+     * @param lastModifiedTime time at which the page's source last changed
+     * @param mimeType         MIME type of the rendered page
+     * @param direct           whether to hold the page's variants in direct (off-heap) buffers
+     */
+    public CachedPage(byte[] renderedBytes, long lastModifiedTime, String mimeType, boolean direct) {
+        this(renderedBytes, renderedBytes.length, lastModifiedTime, mimeType, direct, null);
+    }
+
+    /**
+     * @param renderedBytes    buffer holding the rendered page, which is retained rather than copied where possible
+     * @param length           number of bytes of {@code renderedBytes} holding the rendered page
+     * @param lastModifiedTime time at which the page's source last changed
+     * @param mimeType         MIME type of the rendered page
+     * @param direct           whether to hold the page's variants in direct (off-heap) buffers
+     * @param eTagBase         value to derive ETags from (see {@link #eTag(String, ContentEncoding)}), or null to
+     *                         derive them from a hash of the rendered page
+     */
+    CachedPage(byte[] renderedBytes, int length, long lastModifiedTime, String mimeType, boolean direct, String eTagBase) {
         this.lastModifiedTime = lastModifiedTime;
-        this.eTag = "\"" + Hashing.murmur3_128().hashBytes(renderedBytes).toString() + "\"";
         this.mimeType = mimeType;
+
+        String hash = eTagBase != null ? eTagBase : Hashing.murmur3_128().hashBytes(renderedBytes, 0, length).toString();
+        this.eTagBase = hash;
+        this.eTag = eTag(hash, ContentEncoding.IDENTITY);
+        variants.put(ContentEncoding.IDENTITY, new Variant(ContentEncoding.IDENTITY, renderedBytes, length, eTag, direct));
+
+        if (length >= MIN_COMPRESSIBLE_SIZE) {
+            for (ContentEncoding encoding : new ContentEncoding[]{ContentEncoding.GZIP, ContentEncoding.DEFLATE}) {
+                byte[] encoded = encoding.encode(renderedBytes, length);
+                if (encoded.length < length) {
+                    variants.put(encoding, new Variant(encoding, encoded, encoded.length, eTag(hash, encoding), direct));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reconstitute a page from previously encoded variants, e.g. read back from storage.
+     *
+     * @param lastModifiedTime time at which the page's source last changed
+     * @param mimeType         MIME type of the rendered page
+     * @param variants         encoded representations of the page, which must include the identity encoding
+     */
+    CachedPage(long lastModifiedTime, String mimeType, Collection<Variant> variants) {
+        this.lastModifiedTime = lastModifiedTime;
+        this.mimeType = mimeType;
+        for (Variant variant : variants) {
+            this.variants.put(variant.encoding, variant);
+        }
+        Preconditions.checkArgument(this.variants.containsKey(ContentEncoding.IDENTITY), "No identity encoded variant");
+        this.eTag = this.variants.get(ContentEncoding.IDENTITY).eTag;
+        this.eTagBase = eTag.substring(1, eTag.length() - 1);
+    }
+
+    /**
+     * @param eTagBase value identifying the version of a page
+     * @param encoding content coding of a representation of the page
+     * @return the ETag of that representation
+     */
+    static String eTag(String eTagBase, ContentEncoding encoding) {
+        return encoding == ContentEncoding.IDENTITY ? "\"" + eTagBase + "\"" : "\"" + eTagBase + "-" + encoding.token + "\"";
+    }
+
+    /**
+     * @param eTagBase value to derive ETags from
+     * @return this page, sharing its content, with ETags derived from {@code eTagBase}
+     */
+    CachedPage withETags(String eTagBase) {
+        List<Variant> retagged = new ArrayList<>(variants.size());
+        for (Variant variant : variants.values()) {
+            retagged.add(new Variant(variant, eTag(eTagBase, variant.encoding)));
+        }
+        return new CachedPage(lastModifiedTime, mimeType, retagged);
+    }
+
+    /**
+     * @return all encoded representations of this page
+     */
+    Collection<Variant> variants() {
+        return variants.values();
+    }
+
+    /**
+     * @return whether compressed variants of this page exist, i.e. whether the response varies by
+     * {@code Accept-Encoding}
+     */
+    public boolean isCompressed() {
+        return variants.size() > 1;
+    }
+
+    /**
+     * @return approximate number of bytes of memory used to hold this page, for cache weighing
+     */
+    public int weight() {
+        long weight = PAGE_OVERHEAD;
+        for (Variant variant : variants.values()) {
+            weight += variant.length() + VARIANT_OVERHEAD;
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Choose the best representation of this page for a client.
+     *
+     * @param acceptEncoding value of the request's {@code Accept-Encoding} header
+     * @return the most preferred compressed variant the client accepts which is smaller than the unencoded page,
+     * falling back to the identity encoding
+     */
+    @NotNull
+    public Variant variantFor(String acceptEncoding) {
+        Variant identity = variants.get(ContentEncoding.IDENTITY);
+        if (!isCompressed()) {
+            return identity;
+        }
+
+        // Codings are in order of preference; deflate's shorter header would otherwise always beat gzip by a few bytes
+        Set<ContentEncoding> acceptable = ContentEncoding.acceptableCompressions(acceptEncoding);
+        for (ContentEncoding encoding : acceptable) {
+            Variant candidate = variants.get(encoding);
+            if (candidate != null && candidate.length() < identity.length()) {
+                return candidate;
+            }
+        }
+        return identity;
+    }
+
+    /**
+     * A single encoded representation of a cached page.
+     * <p>
+     * Content is held in a read-only buffer, which is never modified or copied when serving; each response should
+     * send a {@link ByteBuffer#duplicate() duplicate} of it.
+     */
+    static class Variant {
+        public final ContentEncoding encoding;
+        public final ByteBuffer content;
+        public final String eTag;
+
+        /*
+         * Backing array for heap content (read-only buffers do not expose it), or null for direct content
+         */
+        private final byte[] array;
+
+        Variant(ContentEncoding encoding, byte[] bytes, int length, String eTag, boolean direct) {
+            this.encoding = encoding;
+            this.eTag = eTag;
+            if (direct) {
+                ByteBuffer directContent = ByteBuffer.allocateDirect(length);
+                directContent.put(bytes, 0, length).flip();
+                this.content = directContent.asReadOnlyBuffer();
+                this.array = null;
+            } else {
+                // Retain a partly filled buffer as is, unless too much of it would be wasted
+                if (bytes.length - length > bytes.length / MAX_SLACK_DIVISOR) {
+                    bytes = Arrays.copyOf(bytes, length);
+                }
+                this.content = ByteBuffer.wrap(bytes, 0, length).slice().asReadOnlyBuffer();
+                this.array = bytes;
+            }
+        }
+
+        private Variant(Variant variant, String eTag) {
+            this.encoding = variant.encoding;
+            this.content = variant.content;
+            this.eTag = eTag;
+            this.array = variant.array;
+        }
+
+        /**
+         * @param encoding content coding of {@code content}
+         * @param content  encoded content, which is not copied
+         * @param eTag     ETag for this representation
+         */
+        Variant(ContentEncoding encoding, ByteBuffer content, String eTag) {
+            this.encoding = encoding;
+            this.eTag = eTag;
+            this.content = content.asReadOnlyBuffer();
+            this.array = null;
+        }
+
+        public int length() {
+            return content.remaining();
+        }
+
+        /**
+         * @return the array backing this variant's content at the same indices, or null if it is not held on the heap
+         */
+        byte[] array() {
+            return array;
+        }
+
+        /**
+         * Write this variant's content to a stream, without copying it when the stream allows.
+         *
+         * @param outputStream stream to write to
+         * @throws IOException if the content could not be written
+         */
+        void writeTo(OutputStream outputStream) throws IOException {
+            if (array != null) {
+                outputStream.write(array, 0, content.limit());
+            } else {
+                Channels.newChannel(outputStream).write(content.duplicate());
+            }
+        }
     }
 }
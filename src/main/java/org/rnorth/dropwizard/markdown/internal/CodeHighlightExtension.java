@@ -0,0 +1,70 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.collect.ImmutableSet;
+import com.vladsch.flexmark.ast.FencedCodeBlock;
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.html.HtmlWriter;
+import com.vladsch.flexmark.html.renderer.NodeRenderer;
+import com.vladsch.flexmark.html.renderer.NodeRendererContext;
+import com.vladsch.flexmark.html.renderer.NodeRenderingHandler;
+import com.vladsch.flexmark.util.options.MutableDataHolder;
+
+import java.util.Set;
+
+/**
+ * A flexmark extension that highlights fenced code blocks as they are rendered, with {@link CodeHighlighter}, so that
+ * pages need no client-side highlighting script. Blocks in languages the highlighter does not support (including
+ * {@code mermaid} diagrams) are rendered as usual.
+ */
+public class CodeHighlightExtension implements HtmlRenderer.HtmlRendererExtension {
+
+    /*
+     * Class of the pre element around highlighted code, to which the default stylesheet's token colours are scoped
+     */
+    static final String SERVER_HIGHLIGHTED = "server-highlighted";
+
+    private CodeHighlightExtension() {
+    }
+
+    public static CodeHighlightExtension create() {
+        return new CodeHighlightExtension();
+    }
+
+    @Override
+    public void rendererOptions(MutableDataHolder options) {
+    }
+
+    @Override
+    public void extend(HtmlRenderer.Builder rendererBuilder, String rendererType) {
+        if ("HTML".equals(rendererType)) {
+            rendererBuilder.nodeRendererFactory(options -> new FencedCodeRenderer());
+        }
+    }
+
+    private static class FencedCodeRenderer implements NodeRenderer {
+
+        @Override
+        public Set<NodeRenderingHandler<?>> getNodeRenderingHandlers() {
+            return ImmutableSet.of(new NodeRenderingHandler<>(FencedCodeBlock.class, this::render));
+        }
+
+        private void render(FencedCodeBlock node, NodeRendererContext context, HtmlWriter html) {
+            String info = node.getInfo().toString().trim();
+            String language = info.isEmpty() ? null : info.split("\\s+", 2)[0];
+            if (!CodeHighlighter.supports(language)) {
+                context.delegateRender();
+                return;
+            }
+
+            html.line();
+            html.attr("class", SERVER_HIGHLIGHTED).withAttr().tag("pre");
+            html.openPre();
+            html.attr("class", "hljs language-" + language).tag("code");
+            html.raw(CodeHighlighter.highlight(language, node.getContentChars().toString()));
+            html.tag("/code");
+            html.tag("/pre");
+            html.closePre();
+            html.line();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.escape.Escaper;
+import com.google.common.html.HtmlEscapers;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Highlights source code as HTML, wrapping keywords, strings, comments and so on in {@code span} elements with the
+ * same class names as highlight.js (e.g. {@code hljs-keyword}), so that highlight.js themes style them too.
+ * <p>
+ * Each language is tokenized with a single regular expression, built from an ordered list of rules; where rules
+ * overlap, the earliest listed wins (e.g. a keyword within a string or comment is part of the string or comment).
+ * This is far simpler than a real lexer, but is sufficient for the short examples found in documentation.
+ */
+class CodeHighlighter {
+
+    private static final Escaper HTML = HtmlEscapers.htmlEscaper();
+
+    private static final String C_COMMENT = "//[^\\n]*|/\\*[\\s\\S]*?\\*/";
+    private static final String HASH_COMMENT = "#[^\\n]*";
+    private static final String DOUBLE_QUOTED = "\"(?:[^\"\\\\\\n]|\\\\.)*\"";
+    private static final String SINGLE_QUOTED = "'(?:[^'\\\\\\n]|\\\\.)*'";
+    private static final String NUMBER = "\\b(?:0[xX][0-9a-fA-F_]+|\\d[\\d_]*(?:\\.\\d+)?(?:[eE][+-]?\\d+)?[lLfFdD]?)\\b";
+
+    private static final Map<String, Language> LANGUAGES;
+
+    static {
+        Language java = new Language()
+                .rule("comment", C_COMMENT)
+                .rule("string", DOUBLE_QUOTED + "|" + SINGLE_QUOTED)
+                .rule("meta", "@[A-Za-z_]\\w*")
+                .rule("keyword", words("abstract assert boolean break byte case catch char class const continue default do " +
+                        "double else enum extends final finally float for goto if implements import instanceof int " +
+                        "interface long native new package private protected public return short static strictfp super " +
+                        "switch synchronized this throw throws transient try var void volatile while"))
+                .rule("literal", words("true false null"))
+                .rule("number", NUMBER);
+
+        Language javascript = new Language()
+                .rule("comment", C_COMMENT)
+                .rule("string", DOUBLE_QUOTED + "|" + SINGLE_QUOTED + "|`(?:[^`\\\\]|\\\\.)*`")
+                .rule("keyword", words("async await break case catch class const continue debugger default delete do else " +
+                        "export extends finally for from function if import in instanceof let new of return static super " +
+                        "switch this throw try typeof var void while with yield interface type enum implements"))
+                .rule("literal", words("true false null undefined NaN Infinity"))
+                .rule("number", NUMBER);
+
+        Language json = new Language()
+                .rule("attr", DOUBLE_QUOTED + "(?=\\s*:)")
+                .rule("string", DOUBLE_QUOTED)
+                .rule("literal", words("true false null"))
+                .rule("number", "-?" + NUMBER);
+
+        Language python = new Language()
+                .rule("comment", HASH_COMMENT)
+                .rule("string", "\"\"\"[\\s\\S]*?\"\"\"|'''[\\s\\S]*?'''|[rbfu]?(?:" + DOUBLE_QUOTED + "|" + SINGLE_QUOTED + ")")
+                .rule("meta", "@[A-Za-z_][\\w.]*")
+                .rule("keyword", words("and as assert async await break class continue def del elif else except finally " +
+                        "for from global if import in is lambda nonlocal not or pass print raise return try while with yield"))
+                .rule("literal", words("True False None"))
+                .rule("number", NUMBER);
+
+        Language bash = new Language()
+                .rule("comment", "(?<![\\w$])" + HASH_COMMENT)
+                .rule("string", DOUBLE_QUOTED + "|'[^']*'")
+                .rule("variable", "\\$(?:\\{[^}\\n]*\\}|\\w+|[@#?$!*-])")
+                .rule("keyword", words("if then else elif fi for while until do done case esac in function return " +
+                        "local export readonly"))
+                .rule("built_in", words("cd echo exit printf read set shift source test unset"))
+                .rule("number", NUMBER);
+
+        Language yaml = new Language()
+                .rule("comment", "(?<!\\S)" + HASH_COMMENT)
+                .rule("meta", "^---$|^\\.\\.\\.$")
+                .rule("attr", "[\\w.\\-]+(?=:(?:\\s|$))")
+                .rule("string", DOUBLE_QUOTED + "|" + SINGLE_QUOTED)
+                .rule("literal", words("true false yes no on off null") + "|~")
+                .rule("number", "-?" + NUMBER);
+
+        Language xml = new Language()
+                .rule("comment", "<!--[\\s\\S]*?-->")
+                .rule("meta", "<\\?[\\s\\S]*?\\?>|<!\\w[^>]*>")
+                .rule("name", "(?<=<)/?[\\w:.\\-]+")
+                .rule("attr", "[\\w:.\\-]+(?=\\s*=)")
+                .rule("string", DOUBLE_QUOTED + "|" + SINGLE_QUOTED);
+
+        Language sql = new Language()
+                .rule("comment", "--[^\\n]*|/\\*[\\s\\S]*?\\*/")
+                .rule("string", "'(?:[^']|'')*'")
+                .rule("keyword", "(?i)" + words("add all alter and as asc begin between by case commit create default delete " +
+                        "desc distinct drop else end exists foreign from group having if in index inner insert into is join " +
+                        "key left like limit not null offset on or order outer primary references right rollback select set " +
+                        "table then union unique update values view when where with"))
+                .rule("type", "(?i)" + words("bigint boolean char date decimal int integer numeric real smallint text " +
+                        "timestamp varchar"))
+                .rule("number", NUMBER);
+
+        LANGUAGES = ImmutableMap.<String, Language>builder()
+                .put("java", java)
+                .put("javascript", javascript)
+                .put("js", javascript)
+                .put("typescript", javascript)
+                .put("ts", javascript)
+                .put("json", json)
+                .put("python", python)
+                .put("py", python)
+                .put("bash", bash)
+                .put("sh", bash)
+                .put("shell", bash)
+                .put("yaml", yaml)
+                .put("yml", yaml)
+                .put("xml", xml)
+                .put("html", xml)
+                .put("sql", sql)
+                .build();
+
+        for (Language language : LANGUAGES.values()) {
+            language.compile();
+        }
+    }
+
+    /**
+     * @param language a fenced code block's language, as given in its info string
+     * @return whether code in the language can be highlighted
+     */
+    static boolean supports(@Nullable String language) {
+        return language != null && LANGUAGES.containsKey(language.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @param language a language for which {@link #supports(String)} is true
+     * @param code     source code in that language
+     * @return the code as escaped HTML, with highlighted tokens wrapped in {@code span} elements
+     */
+    @NotNull
+    static String highlight(@NotNull String language, @NotNull String code) {
+        Language rules = LANGUAGES.get(language.toLowerCase(Locale.ROOT));
+        StringBuilder html = new StringBuilder(code.length() * 2);
+        Matcher matcher = rules.pattern.matcher(code);
+        int end = 0;
+        while (matcher.find()) {
+            html.append(HTML.escape(code.substring(end, matcher.start())));
+            for (int group = 1; group <= matcher.groupCount(); group++) {
+                if (matcher.start(group) >= 0) {
+                    html.append("<span class=\"hljs-").append(rules.classes.get(group - 1)).append("\">")
+                            .append(HTML.escape(matcher.group(group))).append("</span>");
+                    break;
+                }
+            }
+            end = matcher.end();
+        }
+        return html.append(HTML.escape(code.substring(end))).toString();
+    }
+
+    private static String words(String words) {
+        return "\\b(?:" + words.replace(' ', '|') + ")\\b";
+    }
+
+    /*
+     * The rules for a single language, compiled into one pattern with a capturing group per rule
+     */
+    private static class Language {
+        private final Map<String, String> rules = new LinkedHashMap<>();
+        private final List<String> classes = new ArrayList<>();
+        private Pattern pattern;
+
+        Language rule(String cssClass, String regex) {
+            // Rules with the same class are merged, so that each has a single group
+            rules.merge(cssClass, regex, (existing, added) -> existing + "|" + added);
+            return this;
+        }
+
+        void compile() {
+            StringBuilder regex = new StringBuilder();
+            for (Map.Entry<String, String> rule : rules.entrySet()) {
+                regex.append(regex.length() > 0 ? "|" : "").append('(').append(rule.getValue()).append(')');
+                classes.add(rule.getKey());
+            }
+            pattern = Pattern.compile(regex.toString(), Pattern.MULTILINE);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.base.Splitter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP content codings that rendered pages may be stored and served in.
+ */
+enum ContentEncoding {
+
+    GZIP("gzip") {
+        @Override
+        OutputStream wrap(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out) {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            };
+        }
+    },
+    DEFLATE("deflate") {
+        @Override
+        OutputStream wrap(OutputStream out) throws IOException {
+            return new DeflaterOutputStream(out, new Deflater(Deflater.BEST_COMPRESSION));
+        }
+    },
+    IDENTITY("identity") {
+        @Override
+        OutputStream wrap(OutputStream out) throws IOException {
+            return out;
+        }
+    };
+
+    private static final Splitter CODINGS = Splitter.on(',').trimResults().omitEmptyStrings();
+    private static final Splitter PARAMETERS = Splitter.on(';').trimResults();
+
+    final String token;
+
+    ContentEncoding(String token) {
+        this.token = token;
+    }
+
+    abstract OutputStream wrap(OutputStream out) throws IOException;
+
+    /**
+     * @param content bytes to encode
+     * @return {@code content} encoded with this content coding
+     */
+    @NotNull
+    byte[] encode(byte[] content) {
+        return encode(content, content.length);
+    }
+
+    /**
+     * @param content bytes to encode
+     * @param length  number of bytes of {@code content} to encode
+     * @return the first {@code length} bytes of {@code content} encoded with this content coding
+     */
+    @NotNull
+    byte[] encode(byte[] content, int length) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(length / 4);
+        try (OutputStream out = wrap(baos)) {
+            out.write(content, 0, length);
+        } catch (IOException e) {
+            // Not expected when writing to memory
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Determine which compressed codings a client will accept, in our order of preference.
+     *
+     * @param acceptEncoding value of the request's {@code Accept-Encoding} header
+     * @return acceptable compressed codings (never including {@link #IDENTITY})
+     */
+    @NotNull
+    static Set<ContentEncoding> acceptableCompressions(@Nullable String acceptEncoding) {
+        Set<ContentEncoding> acceptable = EnumSet.noneOf(ContentEncoding.class);
+        if (acceptEncoding == null) {
+            return acceptable;
+        }
+
+        boolean wildcard = false;
+        EnumSet<ContentEncoding> refused = EnumSet.noneOf(ContentEncoding.class);
+        for (String coding : CODINGS.split(acceptEncoding)) {
+            String name = coding;
+            boolean zeroQuality = false;
+            int paramsStart = coding.indexOf(';');
+            if (paramsStart >= 0) {
+                name = coding.substring(0, paramsStart).trim();
+                for (String param : PARAMETERS.split(coding.substring(paramsStart + 1))) {
+                    if (param.startsWith("q=") || param.startsWith("Q=")) {
+                        zeroQuality = isZero(param.substring(2));
+                    }
+                }
+            }
+            name = name.toLowerCase(Locale.ENGLISH);
+
+            if ("*".equals(name)) {
+                wildcard = !zeroQuality;
+                continue;
+            }
+            for (ContentEncoding encoding : values()) {
+                if (encoding != IDENTITY && (encoding.token.equals(name) || ("x-" + encoding.token).equals(name))) {
+                    (zeroQuality ? refused : acceptable).add(encoding);
+                }
+            }
+        }
+
+        if (wildcard) {
+            acceptable.addAll(EnumSet.complementOf(refused));
+            acceptable.remove(IDENTITY);
+        }
+        acceptable.removeAll(refused);
+        return acceptable;
+    }
+
+    private static boolean isZero(String qValue) {
+        try {
+            return Float.parseFloat(qValue.trim()) <= 0f;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
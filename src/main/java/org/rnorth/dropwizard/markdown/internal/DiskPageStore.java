@@ -0,0 +1,230 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Second-tier store of rendered pages on local disk, so that a restarted process can reuse pages rendered before it
+ * restarted instead of rendering them again.
+ * <p>
+ * Pages are stored one per file, named by a key derived from everything that affects rendering (see
+ * {@link RenderFingerprint}); a changed source, template or configuration therefore simply looks up a different key.
+ * Stored pages are read through memory-mapped files, so their content is served from the page cache of the OS rather
+ * than copied onto the heap. Once the total size of stored pages exceeds the limit, the least recently used pages are
+ * deleted.
+ */
+class DiskPageStore {
+
+    private static final String SUFFIX = ".page";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /*
+     * When over the size limit, evict down to this proportion of it, so that eviction is not needed on every write
+     */
+    private static final double EVICTION_TARGET = 0.9;
+
+    private final Path directory;
+    private final long maximumBytes;
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskPageStore.class);
+
+    /**
+     * @param directory    directory to store pages in, which is created if necessary
+     * @param maximumBytes limit on the total size of stored pages
+     * @throws IOException if the directory could not be created or read
+     */
+    DiskPageStore(@NotNull Path directory, long maximumBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maximumBytes = maximumBytes;
+
+        // Left behind by a process that stopped part way through storing a page
+        try (DirectoryStream<Path> tempFiles = Files.newDirectoryStream(directory, "*" + TEMP_SUFFIX)) {
+            for (Path tempFile : tempFiles) {
+                delete(tempFile);
+            }
+        }
+
+        for (StoredFile file : listStoredFiles()) {
+            totalBytes.addAndGet(file.size);
+        }
+        logger.info("Using {} for rendered pages ({} bytes stored, limit {} bytes)", directory, totalBytes.get(), maximumBytes);
+    }
+
+    /**
+     * @param key              key of the page
+     * @param lastModifiedTime time at which the page's source last changed
+     * @return the stored page, or null if no valid page is stored under the key
+     */
+    @Nullable
+    CachedPage get(@NotNull String key, long lastModifiedTime) {
+        Path file = fileFor(key);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping remains valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CachedPage page = PageCodec.read(buffer, key, lastModifiedTime);
+            if (page == null) {
+                logger.warn("Stored page ({}) is invalid or does not match its key - discarding", file);
+                discard(file);
+                return null;
+            }
+
+            // Record use, for least-recently-used eviction
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return page;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Stored page ({}) could not be read", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Store a page, replacing any already stored under the same key. Failures are logged rather than thrown, as the
+     * store is only an optimisation.
+     *
+     * @param key  key of the page
+     * @param page the page
+     */
+    void put(@NotNull String key, @NotNull CachedPage page) {
+        Path file = fileFor(key);
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(directory, key, TEMP_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                PageCodec.write(out, key, page);
+            }
+            long size = Files.size(tempFile);
+
+            // Size the file being replaced and replace it as one step, so that concurrent puts of the same key
+            // cannot both count it as replaced
+            synchronized (this) {
+                long replacedSize;
+                try {
+                    replacedSize = Files.size(file);
+                } catch (NoSuchFileException e) {
+                    replacedSize = 0;
+                }
+
+                // Readers must never see a partially written page
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                tempFile = null;
+
+                if (totalBytes.addAndGet(size - replacedSize) > maximumBytes) {
+                    evict();
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Rendered page could not be stored in {}", file, e);
+        } finally {
+            if (tempFile != null) {
+                delete(tempFile);
+            }
+        }
+    }
+
+    /**
+     * @return total size of stored pages, in bytes
+     */
+    long totalBytes() {
+        return totalBytes.get();
+    }
+
+    private synchronized void evict() throws IOException {
+        List<StoredFile> files = listStoredFiles();
+        long total = 0;
+        for (StoredFile file : files) {
+            total += file.size;
+        }
+
+        long target = (long) (maximumBytes * EVICTION_TARGET);
+        files.sort(Comparator.comparing(file -> file.lastUsed));
+        int evicted = 0;
+        for (StoredFile file : files) {
+            if (total <= target) {
+                break;
+            }
+            if (delete(file.path)) {
+                total -= file.size;
+                evicted++;
+            }
+        }
+        totalBytes.set(total);
+        logger.debug("Evicted {} stored pages from {}; {} bytes remain", evicted, directory, total);
+    }
+
+    private synchronized void discard(Path file) {
+        try {
+            long size = Files.size(file);
+            if (delete(file)) {
+                totalBytes.addAndGet(-size);
+            }
+        } catch (NoSuchFileException e) {
+            // Already discarded or evicted
+        } catch (IOException e) {
+            logger.debug("Could not discard {}", file, e);
+        }
+    }
+
+    private List<StoredFile> listStoredFiles() throws IOException {
+        List<StoredFile> files = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : paths) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    files.add(new StoredFile(path, attributes.size(), attributes.lastModifiedTime()));
+                } catch (NoSuchFileException e) {
+                    // Deleted concurrently
+                }
+            }
+        }
+        return files;
+    }
+
+    private Path fileFor(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    private static boolean delete(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // e.g. still mapped, on platforms that prevent that
+            logger.debug("Could not delete {}", file, e);
+            return false;
+        }
+    }
+
+    private static class StoredFile {
+        final Path path;
+        final long size;
+        final FileTime lastUsed;
+
+        StoredFile(Path path, long size, FileTime lastUsed) {
+            this.path = path;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.ast.Node;
+import com.vladsch.flexmark.ast.Text;
+import com.vladsch.flexmark.html.AttributeProvider;
+import com.vladsch.flexmark.html.IndependentAttributeProviderFactory;
+import com.vladsch.flexmark.html.renderer.AttributablePart;
+import com.vladsch.flexmark.html.renderer.NodeRendererContext;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the headings of a document as it is rendered to HTML, including the anchor IDs the renderer gives them, so
+ * that headings and IDs always agree with the rendered page.
+ * <p>
+ * Capture is scoped to a single render on the current thread, so a document may be rendered concurrently elsewhere
+ * (e.g. as a complete page) without affecting what is captured.
+ */
+class HeadingCapture extends IndependentAttributeProviderFactory {
+
+    private static final ThreadLocal<List<PageHeading>> CAPTURED = new ThreadLocal<>();
+
+    /**
+     * @param render a render, which must run on the calling thread
+     * @return the headings of the document rendered, in document order
+     */
+    @NotNull
+    static List<PageHeading> capture(@NotNull Runnable render) {
+        List<PageHeading> headings = new ArrayList<>();
+        CAPTURED.set(headings);
+        try {
+            render.run();
+        } finally {
+            CAPTURED.remove();
+        }
+        return headings;
+    }
+
+    @Override
+    public AttributeProvider create(NodeRendererContext context) {
+        List<PageHeading> headings = CAPTURED.get();
+        if (headings == null) {
+            return (node, part, attributes) -> {
+            };
+        }
+        return (node, part, attributes) -> {
+            if (node instanceof Heading && part == AttributablePart.NODE) {
+                String id = attributes.contains("id") ? attributes.getValue("id") : context.getNodeId(node);
+                headings.add(new PageHeading(((Heading) node).getLevel(), textOf(node), id));
+            }
+        };
+    }
+
+    private static String textOf(Node heading) {
+        StringBuilder text = new StringBuilder();
+        for (Node node : heading.getDescendants()) {
+            if (node instanceof Text) {
+                text.append(node.getChars());
+            }
+        }
+        return text.toString().trim();
+    }
+}
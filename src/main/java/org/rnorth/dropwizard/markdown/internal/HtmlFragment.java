@@ -0,0 +1,105 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.codahale.metrics.Timer;
+import com.vladsch.flexmark.ast.Node;
+import com.vladsch.flexmark.html.HtmlRenderer;
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The HTML rendered from a parsed markdown document, which is only rendered when the page template asks for it.
+ * <p>
+ * Used as a directive ({@code <@htmlFragment/>}), the HTML is rendered straight into the template's output, without
+ * ever being held as a whole in memory. Used as an interpolation ({@code ${htmlFragment}}, or {@code ${html}} as
+ * custom templates written for earlier versions do), it is rendered to a string first.
+ */
+public class HtmlFragment implements TemplateDirectiveModel, TemplateScalarModel {
+
+    private final Node document;
+    private final HtmlRenderer renderer;
+    private final Timer renderTimer;
+    private final String rendered;
+    private List<PageHeading> headings;
+
+    HtmlFragment(@NotNull Node document, @NotNull HtmlRenderer renderer, @NotNull Timer renderTimer) {
+        this.document = document;
+        this.renderer = renderer;
+        this.renderTimer = renderTimer;
+        this.rendered = null;
+    }
+
+    /**
+     * @param rendered HTML that has already been rendered
+     */
+    HtmlFragment(@NotNull String rendered) {
+        this.document = null;
+        this.renderer = null;
+        this.renderTimer = null;
+        this.rendered = rendered;
+    }
+
+    /**
+     * Render the HTML into a writer.
+     *
+     * @param writer writer to render into
+     */
+    void writeTo(@NotNull Appendable writer) {
+        if (rendered != null) {
+            try {
+                writer.append(rendered);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        try (Timer.Context ignored = renderTimer.time()) {
+            if (headings == null) {
+                headings = HeadingCapture.capture(() -> renderer.render(document, writer));
+            } else {
+                renderer.render(document, writer);
+            }
+        }
+    }
+
+    /**
+     * @return the headings of the HTML, with the anchor IDs they were rendered with, or null if it has not been
+     * rendered here
+     */
+    @Nullable
+    List<PageHeading> headings() {
+        return headings;
+    }
+
+    @Override
+    public void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body) throws IOException {
+        Writer out = env.getOut();
+        writeTo(out);
+    }
+
+    @Override
+    public String getAsString() throws TemplateModelException {
+        return toString();
+    }
+
+    @Override
+    public String toString() {
+        if (rendered != null) {
+            return rendered;
+        }
+        StringBuilder html = new StringBuilder();
+        writeTo(html);
+        return html.toString();
+    }
+}
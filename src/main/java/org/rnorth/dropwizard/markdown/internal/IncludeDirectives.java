@@ -0,0 +1,103 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.html.HtmlEscapers;
+import com.vladsch.flexmark.ast.HtmlCommentBlock;
+import com.vladsch.flexmark.ast.Node;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Include directives - HTML comments of the form {@code <!-- include: path/to/file.md -->}, as blocks of their own at
+ * the top level of a page - which are expanded into the source of the file named.
+ * <p>
+ * Directives are found in the parsed document, so a directive shown in a code block or nested in a list or quote is
+ * never expanded. Included sources are spliced into the page's source before it is parsed for rendering, so that the
+ * page is parsed as one document: headings in included files get anchor IDs like any other, and footnotes and link
+ * references resolve across files.
+ */
+final class IncludeDirectives {
+
+    /*
+     * Includes nested deeper than this are assumed to be runaway, even if no file is repeated
+     */
+    static final int MAX_DEPTH = 16;
+
+    private static final Pattern DIRECTIVE = Pattern.compile("<!--\\s*include:\\s*(\\S+?)\\s*-->");
+
+    private IncludeDirectives() {
+    }
+
+    /**
+     * An include directive in a markdown source.
+     */
+    static final class Directive {
+        /** Path of the included file, relative to the resource root and without a leading slash */
+        final String path;
+        /** Offset of the start of the directive in the source */
+        final int start;
+        /** Offset of the end of the directive in the source */
+        final int end;
+
+        private Directive(String path, int start, int end) {
+            this.path = path;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * @param document a document parsed from a markdown source
+     * @return the include directives of the document, in order
+     */
+    @NotNull
+    static List<Directive> find(@NotNull Node document) {
+        ImmutableList.Builder<Directive> directives = ImmutableList.builder();
+        for (Node node : document.getChildren()) {
+            if (node instanceof HtmlCommentBlock) {
+                Matcher matcher = DIRECTIVE.matcher(node.getChars().toString().trim());
+                if (matcher.matches()) {
+                    directives.add(new Directive(relativePath(matcher.group(1)), node.getChars().getStartOffset(), node.getChars().getEndOffset()));
+                }
+            }
+        }
+        return directives.build();
+    }
+
+    /*
+     * Paths are relative to the resource root whether or not they start with a slash, and are compared without one
+     */
+    static String relativePath(String path) {
+        int start = 0;
+        while (start < path.length() && path.charAt(start) == '/') {
+            start++;
+        }
+        return path.substring(start);
+    }
+
+    /**
+     * Append markdown source that splices a file into the source including it. The file is separated from the
+     * surrounding source by blank lines, so that it is parsed as blocks of its own.
+     *
+     * @param source   source being built
+     * @param included source of the included file, with its own directives already expanded
+     */
+    static void splice(@NotNull StringBuilder source, @NotNull CharSequence included) {
+        source.append("\n\n").append(included).append("\n\n");
+    }
+
+    /**
+     * Append markdown source for an HTML comment, noting a directive that could not be expanded.
+     *
+     * @param source source being built
+     * @param text   text of the comment
+     */
+    static void comment(@NotNull StringBuilder source, @NotNull String text) {
+        source.append("\n\n<!-- ")
+                .append(HtmlEscapers.htmlEscaper().escape(text).replace("--", "&#45;&#45;"))
+                .append(" -->\n\n");
+    }
+}
@@ -0,0 +1,61 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * The markdown files included by each page, directly or through other included files, as of the page's last render.
+ * <p>
+ * Pages are rendered with the content of the files they include, so must be rendered again when any of those files
+ * change - but only those pages, rather than every page. Pages are keyed by the string forms of their URLs, as
+ * {@link URL#equals} and {@link URL#hashCode} may resolve host names.
+ */
+class IncludeGraph {
+
+    private final Map<String, List<URL>> includes = new ConcurrentHashMap<>();
+
+    /**
+     * @param page     source URL of a page
+     * @param included source URLs of every file the page includes, directly or indirectly, without duplicates
+     */
+    void update(@NotNull URL page, @NotNull Collection<URL> included) {
+        if (included.isEmpty()) {
+            includes.remove(page.toString());
+        } else {
+            includes.put(page.toString(), ImmutableList.copyOf(included));
+        }
+    }
+
+    /**
+     * @param page source URL of a page
+     * @return source URLs of every file the page included when last rendered
+     */
+    @NotNull
+    List<URL> includes(@NotNull URL page) {
+        return includes.getOrDefault(page.toString(), ImmutableList.of());
+    }
+
+    /**
+     * @param sources predicate matching the source URLs of changed files
+     * @return source URLs (in string form) of the pages that include any of the changed files
+     */
+    @NotNull
+    Set<String> dependents(@NotNull Predicate<URL> sources) {
+        Set<String> dependents = new HashSet<>();
+        for (Map.Entry<String, List<URL>> entry : includes.entrySet()) {
+            if (entry.getValue().stream().anyMatch(sources)) {
+                dependents.add(entry.getKey());
+            }
+        }
+        return dependents;
+    }
+}
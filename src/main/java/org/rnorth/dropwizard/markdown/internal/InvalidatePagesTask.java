@@ -0,0 +1,52 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.servlets.tasks.Task;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.function.Predicate;
+
+/**
+ * Admin task that discards cached pages, so that they are rendered again when next requested - e.g. after a fix to
+ * pages whose resource root is not watched for changes.
+ * <p>
+ * Pages are selected by request path ({@code path}) or path prefix ({@code prefix}), relative to the bundle's URI path;
+ * either may be given more than once, e.g.
+ * {@code curl -X POST 'http://localhost:8081/tasks/invalidate-assets?path=/index.md&prefix=/guide/'}. Pages that
+ * include a selected file are discarded too.
+ */
+public class InvalidatePagesTask extends Task {
+
+    private final MarkdownAssetsServlet servlet;
+
+    /**
+     * @param assetsName name of the bundle's servlet mapping, which the task is named after
+     * @param servlet    servlet whose cached pages should be discarded
+     */
+    public InvalidatePagesTask(@NotNull String assetsName, @NotNull MarkdownAssetsServlet servlet) {
+        super("invalidate-" + assetsName);
+        this.servlet = servlet;
+    }
+
+    @Override
+    public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+        ImmutableCollection<String> paths = parameters.get("path");
+        ImmutableCollection<String> prefixes = parameters.get("prefix");
+        if (paths.isEmpty() && prefixes.isEmpty()) {
+            output.println("No pages selected - give one or more path or prefix parameters");
+            return;
+        }
+
+        Predicate<URL> sources = url -> false;
+        for (String path : paths) {
+            sources = sources.or(servlet.sourceAt(path));
+        }
+        for (String prefix : prefixes) {
+            sources = sources.or(servlet.sourcesUnder(prefix));
+        }
+        output.println("Discarded " + servlet.invalidate(sources) + " cached pages");
+    }
+}
@@ -0,0 +1,86 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.LongSupplier;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Timers, meters and gauges for the render and serve pipeline of a single {@link MarkdownAssetsServlet}.
+ * <p>
+ * Metric names are prefixed with {@link MarkdownAssetsServlet}'s class name and the bundle's assets name, so that
+ * several bundles within one application can be told apart, e.g.
+ * {@code org.rnorth.dropwizard.markdown.internal.MarkdownAssetsServlet.assets.render.parse}.
+ */
+public class MarkdownAssetsMetrics {
+
+    /*
+     * Render pipeline stages
+     */
+    final Timer sourceLoad;
+    final Timer parse;
+    final Timer render;
+    final Timer template;
+    final Timer renderTotal;
+    final Meter renderRejections;
+    final Meter renderTimeouts;
+
+    /*
+     * Serving
+     */
+    final Timer requests;
+    final Meter cacheHits;
+    final Meter cacheMisses;
+    final Meter cacheEvictions;
+    final Meter cacheRevalidations;
+    final Meter notModified;
+    final Meter staleServed;
+    final Meter bytesWritten;
+    final Timer search;
+
+    private final MetricRegistry registry;
+    private final String prefix;
+
+    /**
+     * @param registry   registry to register metrics with
+     * @param assetsName name of the servlet mapping for the bundle being measured
+     */
+    public MarkdownAssetsMetrics(@NotNull MetricRegistry registry, @NotNull String assetsName) {
+        this.registry = registry;
+        this.prefix = name(MarkdownAssetsServlet.class, assetsName);
+
+        sourceLoad = registry.timer(name(prefix, "render", "source-load"));
+        parse = registry.timer(name(prefix, "render", "parse"));
+        render = registry.timer(name(prefix, "render", "html"));
+        template = registry.timer(name(prefix, "render", "template"));
+        renderTotal = registry.timer(name(prefix, "render", "total"));
+        renderRejections = registry.meter(name(prefix, "render", "rejected"));
+        renderTimeouts = registry.meter(name(prefix, "render", "timeouts"));
+
+        requests = registry.timer(name(prefix, "requests"));
+        cacheHits = registry.meter(name(prefix, "cache", "hits"));
+        cacheMisses = registry.meter(name(prefix, "cache", "misses"));
+        cacheEvictions = registry.meter(name(prefix, "cache", "evictions"));
+        cacheRevalidations = registry.meter(name(prefix, "cache", "revalidations"));
+        notModified = registry.meter(name(prefix, "not-modified"));
+        staleServed = registry.meter(name(prefix, "stale-served"));
+        bytesWritten = registry.meter(name(prefix, "bytes-written"));
+        search = registry.timer(name(prefix, "search"));
+    }
+
+    /**
+     * Register gauges describing the contents of the page cache.
+     *
+     * @param entries supplier of the number of cached pages
+     * @param bytes   supplier of the total size of cached pages, in bytes
+     */
+    void registerCacheGauges(@NotNull LongSupplier entries, @NotNull LongSupplier bytes) {
+        registry.register(name(prefix, "cache", "entries"), (Gauge<Long>) entries::getAsLong);
+        registry.register(name(prefix, "cache", "bytes"), (Gauge<Long>) bytes::getAsLong);
+    }
+}
@@ -1,43 +1,94 @@
 package org.rnorth.dropwizard.markdown.internal;
 
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheBuilderSpec;
-import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.io.ByteStreams;
+import com.google.common.cache.RemovalCause;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CharStreams;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.vladsch.flexmark.Extension;
 import com.vladsch.flexmark.ast.Node;
 import com.vladsch.flexmark.html.HtmlRenderer;
 import com.vladsch.flexmark.parser.Parser;
 import com.vladsch.flexmark.util.options.DataHolder;
-import freemarker.template.Configuration;
-import freemarker.template.Template;
 import freemarker.template.TemplateException;
-import freemarker.template.TemplateNotFoundException;
 import io.dropwizard.servlets.assets.AssetServlet;
 import io.dropwizard.servlets.assets.ResourceURL;
+import org.eclipse.jetty.server.HttpOutput;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.rnorth.dropwizard.markdown.MarkdownAssetsConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import java.io.*;
+import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 
+import static com.google.common.net.HttpHeaders.ACCEPT_RANGES;
+import static com.google.common.net.HttpHeaders.CONTENT_RANGE;
+import static com.google.common.net.HttpHeaders.IF_RANGE;
+import static com.google.common.net.HttpHeaders.RANGE;
 import static javax.ws.rs.core.HttpHeaders.IF_MODIFIED_SINCE;
 import static javax.ws.rs.core.HttpHeaders.IF_NONE_MATCH;
 
@@ -49,21 +100,107 @@ import static javax.ws.rs.core.HttpHeaders.IF_NONE_MATCH;
  */
 public class MarkdownAssetsServlet extends HttpServlet {
 
+    /**
+     * Name of the page pack file, within the resource path, from which pre-rendered pages are served
+     */
+    public static final String PAGE_PACK_NAME = PagePack.PACK_NAME;
+
+    /**
+     * Path, relative to the URI path, at which pages are searched when search is enabled
+     */
+    public static final String SEARCH_PATH = "/_search";
+
+    /**
+     * Path, relative to the URI path, at which the site navigation is served when enabled
+     */
+    public static final String SITE_NAVIGATION_PATH = "/_site";
+
     /*
      * flexmark-java markdown processors.
      */
     private final Parser parser;
     private final HtmlRenderer renderer;
 
+    /*
+     * Compiled Freemarker page template
+     */
+    private final PageTemplate pageTemplate;
+
     /*
      * Wrapped AssetServlet
      */
     private final AssetServlet assetServlet;
 
     /*
-     * Cache for rendered markdown content
+     * Engine with which pages are rendered and cached, which may be shared with other servlets
+     */
+    private final RenderEngine engine;
+
+    /*
+     * Cache for rendered markdown content, in each format it has been requested in; this servlet's entries are those
+     * whose keys are owned by its page loader
+     */
+    private final LoadingCache<PageKey, CachedPage> pageCache;
+    private final PageLoader pageLoader;
+
+    /*
+     * Parsed markdown sources, shared by every format a page is rendered in; held softly, as they can be re-parsed.
+     * Keyed by the string forms of source URLs, as URL.equals and hashCode may resolve host names
+     */
+    private final Cache<String, ParsedPage> parsedPages = CacheBuilder.newBuilder().softValues().build();
+
+    /*
+     * Pages that have been invalidated or expired from the page cache, which are served if a fresh page cannot be
+     * rendered because the render executor is saturated. Bounded by the same size as this servlet's share of the page
+     * cache, as a page is only retained here once it has left the cache, and is dropped once rendered again
+     */
+    private final Cache<PageKey, CachedPage> stalePages;
+
+    /*
+     * Bounded executor on which all rendering happens, and the limits applied to each render
+     */
+    private final ListeningExecutorService renderExecutor;
+    private final long renderTimeoutMillis;
+    private final long maxSourceSize;
+
+    /*
+     * Times out renders when serving asynchronously; null otherwise
+     */
+    private final ScheduledExecutorService renderTimeouts;
+
+    /*
+     * Renders under way for asynchronous requests, so that concurrent requests for a page share one render
+     */
+    private final ConcurrentMap<PageKey, SharedRender> asyncRenders = new ConcurrentHashMap<>();
+
+    /*
+     * Optional pages rendered at build time, and second-tier store for rendered pages which survives restarts
+     */
+    private final PagePack pagePack;
+    private final DiskPageStore diskPageStore;
+    private final RenderFingerprint renderFingerprint;
+
+    /*
+     * Full-text index of every markdown page, kept up to date as pages are parsed; null unless search is enabled
+     */
+    private final SearchIndex searchIndex;
+
+    /*
+     * Navigation built from the headings of every markdown page, kept up to date as pages are parsed; null unless
+     * enabled
+     */
+    private final SiteIndex siteIndex;
+
+    /*
+     * The root stylesheet, if pages link to it by a versioned URL or include it inline; null otherwise
+     */
+    private final StylesheetVersion stylesheet;
+
+    /*
+     * The markdown files each page includes, so that pages are invalidated when any of them change; null unless
+     * includes are enabled
      */
-    private final LoadingCache<URL, CachedPage> pageCache;
+    private final IncludeGraph includeGraph;
 
     private final String resourcePath;
     private final String uriPath;
@@ -72,6 +209,31 @@ public class MarkdownAssetsServlet extends HttpServlet {
     @NotNull
     private final MarkdownAssetsConfiguration configuration;
     private final URI resourceRootURL;
+    private final MarkdownAssetsMetrics metrics;
+
+    /*
+     * Index of request paths to assets
+     */
+    private final AssetIndex assetIndex;
+
+    /*
+     * Allowance for template markup when sizing the output buffer for a page
+     */
+    private static final int TEMPLATE_SIZE_ALLOWANCE = 4096;
+
+    private static final Splitter ETAG_LIST = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+    /*
+     * Time allowed for an asynchronous response to be written once its page is ready, after which it is abandoned
+     */
+    private static final long ASYNC_WRITE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private static final int DEFAULT_SEARCH_RESULTS = 10;
+    private static final int MAX_SEARCH_RESULTS = 50;
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
 
     private static final Logger logger = LoggerFactory.getLogger(MarkdownAssetsServlet.class);
 
@@ -93,7 +255,13 @@ public class MarkdownAssetsServlet extends HttpServlet {
      * @param configuration      environment-specific configuration properties
      * @param extensions         Flexmark-Java markdown rendering extensions to use
      * @param options            Flexmark-Java markdown rendering options
-     * @param cacheBuilderSpec   {@link CacheBuilderSpec} for rendered pages
+     * @param cacheBuilderSpec   {@link CacheBuilderSpec} for rendered pages; if this specifies a
+     *                           {@code maximumWeight}, or the configuration specifies a maximum cache size, pages
+     *                           are weighed by their size in bytes
+     * @param renderExecutor     executor on which pages are rendered, including when revalidated because the cache
+     *                           spec uses {@code refreshAfterWrite}; if it rejects a render, a stale page is served if
+     *                           there is one, or otherwise {@code 503 Service Unavailable}
+     * @param metrics            metrics to record rendering and serving activity with
      */
     public MarkdownAssetsServlet(@NotNull String resourcePath,
                                  @NotNull String uriPath,
@@ -102,25 +270,127 @@ public class MarkdownAssetsServlet extends HttpServlet {
                                  @NotNull MarkdownAssetsConfiguration configuration,
                                  @NotNull List<Extension> extensions,
                                  @NotNull DataHolder options,
-                                 @NotNull CacheBuilderSpec cacheBuilderSpec) {
+                                 @NotNull CacheBuilderSpec cacheBuilderSpec,
+                                 @NotNull ExecutorService renderExecutor,
+                                 @NotNull MarkdownAssetsMetrics metrics) {
+        this(resourcePath, uriPath, indexFile, defaultCharset, configuration, extensions, options,
+                new RenderEngine(renderExecutor, metrics, cacheBuilderSpec, configuration.getMaximumCacheSize()), 0);
+    }
+
+    /**
+     * Construct a {@link MarkdownAssetsServlet} that renders and caches pages with a {@link RenderEngine}, which may be
+     * shared with other servlets. The engine's cache spec, maximum cache size and render executor apply in place of
+     * any in the configuration.
+     *
+     * @param resourcePath   the base URL from which assets are loaded
+     * @param uriPath        the URI path fragment in which all requests are rooted
+     * @param indexFile      the filename to use when directories are requested
+     * @param defaultCharset the default character set
+     * @param configuration  environment-specific configuration properties
+     * @param extensions     Flexmark-Java markdown rendering extensions to use
+     * @param options        Flexmark-Java markdown rendering options
+     * @param engine         engine with which pages are rendered and cached
+     * @param cacheQuota     maximum total size in bytes of this servlet's pages within the engine's cache, or 0 for
+     *                       no limit other than the engine's own
+     */
+    public MarkdownAssetsServlet(@NotNull String resourcePath,
+                                 @NotNull String uriPath,
+                                 @NotNull String indexFile,
+                                 @NotNull Charset defaultCharset,
+                                 @NotNull MarkdownAssetsConfiguration configuration,
+                                 @NotNull List<Extension> extensions,
+                                 @NotNull DataHolder options,
+                                 @NotNull RenderEngine engine,
+                                 long cacheQuota) {
 
         this.resourcePath = resourcePath;
         this.uriPath = uriPath;
         this.indexFile = indexFile;
         this.defaultCharset = defaultCharset;
         this.configuration = configuration;
+        this.engine = engine;
+        this.metrics = engine.metrics();
+        this.renderExecutor = MoreExecutors.listeningDecorator(engine.renderExecutor());
+        this.renderTimeouts = configuration.isAsyncServing() ?
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("markdown-render-timeout-%d").setDaemon(true).build()) :
+                null;
+        this.renderTimeoutMillis = configuration.getRenderTimeout().toMilliseconds();
+        this.maxSourceSize = configuration.getMaxSourceSize().toBytes();
+        this.stalePages = buildStalePages(cacheQuota > 0 ? cacheQuota : engine.maximumCacheBytes());
+
+        if (configuration.isServerSideHighlighting()) {
+            // Part of the extensions, so that processors and rendered pages are distinguished from unhighlighted ones
+            extensions = ImmutableList.<Extension>builder().addAll(extensions).add(CodeHighlightExtension.create()).build();
+        }
+        includeGraph = configuration.isEnableIncludes() ? new IncludeGraph() : null;
+        RenderEngine.Processors processors = engine.processors(extensions, options);
+        parser = processors.parser;
+        renderer = processors.renderer;
+
+        try {
+            pageTemplate = new PageTemplate(resourcePath);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Page template could not be loaded", e);
+        }
+
+        renderFingerprint = new RenderFingerprint(extensions, options, configuration, uriPath);
+        try {
+            pagePack = PagePack.load(resourcePath, renderFingerprint, configuration.isDirectBuffers());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Page pack could not be loaded", e);
+        }
+        if (configuration.getDiskCacheDirectory() != null) {
+            try {
+                diskPageStore = new DiskPageStore(Paths.get(configuration.getDiskCacheDirectory()),
+                        configuration.getDiskCacheMaxSize().toBytes());
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Disk cache directory (" + configuration.getDiskCacheDirectory() + ") could not be used", e);
+            }
+        } else {
+            diskPageStore = null;
+        }
 
-        parser = Parser.builder(options).extensions(extensions).build();
-        renderer = HtmlRenderer.builder(options).extensions(extensions).build();
+        searchIndex = configuration.isEnableSearch() ? new SearchIndex() : null;
+        siteIndex = configuration.isEnableSiteNavigation() ? new SiteIndex(uriPath, indexFile) : null;
 
         assetServlet = new AssetServlet(resourcePath, uriPath, indexFile, defaultCharset);
-        pageCache = CacheBuilder.from(cacheBuilderSpec)
-                .build(new CacheLoader<URL, CachedPage>() {
-                    @Override
-                    public CachedPage load(@NotNull URL key) throws Exception {
-                        return renderPage(key);
-                    }
-                });
+        pageCache = engine.pageCache();
+        pageLoader = new PageLoader() {
+            @NotNull
+            @Override
+            public CachedPage load(@NotNull PageKey key) throws Exception {
+                return renderOnExecutor(key);
+            }
+
+            @NotNull
+            @Override
+            public ListenableFuture<CachedPage> reload(@NotNull PageKey key, @NotNull CachedPage oldValue) throws Exception {
+                // Only re-render if the source (or template) has actually changed since the page was rendered
+                metrics.cacheRevalidations.mark();
+                if (lastModified(key.url) == oldValue.lastModifiedTime) {
+                    return Futures.immediateFuture(oldValue);
+                }
+                logger.debug("Source ({}) has changed - re-rendering", key);
+
+                // Rendered asynchronously, with the old page served meanwhile; if the executor rejects this, the
+                // cache logs it and keeps the old page
+                ListenableFutureTask<CachedPage> task = ListenableFutureTask.create(() -> renderPage(key));
+                renderExecutor.execute(task);
+                return task;
+            }
+
+            @Override
+            public void removed(@NotNull PageKey key, CachedPage page, @NotNull RemovalCause cause) {
+                // Pages evicted to make room are not kept, or they would take the room back
+                if ((cause == RemovalCause.EXPLICIT || cause == RemovalCause.EXPIRED) && page != null) {
+                    stalePages.put(key, page);
+                }
+            }
+        };
+        if (cacheQuota > 0) {
+            engine.setQuota(pageLoader, cacheQuota);
+        }
+
         try {
             URL resource = this.getClass().getResource(resourcePath);
             Preconditions.checkNotNull(resource, "Resource root URL (" + resourcePath + ") was not found");
@@ -129,136 +399,1374 @@ public class MarkdownAssetsServlet extends HttpServlet {
         } catch (URISyntaxException e) {
             throw new IllegalArgumentException("Resource root URL (" + resourcePath + ") was ind", e);
         }
+
+        try {
+            assetIndex = new AssetIndex(resourcePath, indexFile, resourceRootURL);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Resource root URL (" + resourceRootURL + ") could not be scanned", e);
+        }
+
+        stylesheet = configuration.isVersionedStylesheetUrl() || configuration.isInlineStylesheet() ?
+                new StylesheetVersion(assetIndex) :
+                null;
     }
 
     @Override
     public void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        try (Timer.Context ignored = metrics.requests.time()) {
+            serve(req, resp, false);
+        }
+    }
+
+    @Override
+    protected void doHead(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        try (Timer.Context ignored = metrics.requests.time()) {
+            serve(req, resp, true);
+        }
+    }
+
+    private void serve(HttpServletRequest req, HttpServletResponse resp, boolean headOnly) throws ServletException, IOException {
         String path = req.getPathInfo();
         if (path == null) {
             path = "/";
         }
 
+        if (searchIndex != null && SEARCH_PATH.equals(path)) {
+            search(req, resp);
+            return;
+        }
+
+        if (siteIndex != null && SITE_NAVIGATION_PATH.equals(path)) {
+            sendSiteNavigation(req, resp);
+            return;
+        }
+
+        String cacheControl = null;
+        if (stylesheet != null && StylesheetVersion.isVersionedPath(path)) {
+            // An outdated version is answered with the current one, which must not be cached under the old URL
+            cacheControl = path.equals(stylesheet.current().path()) ? StylesheetVersion.IMMUTABLE : "no-cache";
+            path = "/" + AssetIndex.STYLESHEET_NAME;
+        }
+
         if (path.endsWith("/")) {
             path = path + indexFile;
         }
 
         CachedPage renderedPage;
-        URL localSourceUrl = this.getClass().getResource(resourcePath + path);
+        AssetIndex.ResolvedAsset asset = assetIndex.resolve(path);
+
+        switch (asset.kind) {
+            case NOT_FOUND:
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            case PASSTHROUGH:
+                // If it's not markdown, delegate to AssetServlet
+                assetServlet.service(req, resp);
+                return;
+        }
+        URL localSourceUrl = asset.url;
+
+        PageFormat format = PageFormat.PAGE;
+        if (asset.kind == AssetIndex.ResolvedAsset.Kind.MARKDOWN) {
+            format = PageFormat.select(req.getParameter(PageFormat.QUERY_PARAMETER), req.getHeader(HttpHeaders.ACCEPT));
+            if (format == null) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+            // The format may be negotiated by Accept as well as the encoding by Accept-Encoding
+            resp.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+            cacheControl = configuration.getPageCacheControl();
+        }
+        if (cacheControl != null) {
+            resp.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        }
+        PageKey key = new PageKey(pageLoader, localSourceUrl, format);
+
+        // Fetch the rendered page (cached if available) - though a HEAD request for an uncached page is answered
+        // without rendering it
+        renderedPage = pageCache.getIfPresent(key);
+
+        // A cached page's validators were derived when it was rendered, and stay current until it is invalidated or
+        // refreshed. Otherwise they are derived from the source rather than the rendered page, so can be checked
+        // without rendering
+        long lastModified;
+        String eTagBase;
+        if (renderedPage != null) {
+            lastModified = renderedPage.lastModifiedTime;
+            eTagBase = renderedPage.eTagBase;
+        } else {
+            lastModified = asset.kind == AssetIndex.ResolvedAsset.Kind.MARKDOWN ?
+                    Math.max(Math.max(asset.lastModified(), pageDependenciesLastModified()), includesLastModified(localSourceUrl)) :
+                    asset.lastModified();
+            eTagBase = eTagBase(localSourceUrl, eTagBase(localSourceUrl, lastModified, asset.size()), format);
+        }
 
+        // Don't need to send the full page content back, as the client already has latest version; sent as a status
+        // rather than an error, which would discard the Cache-Control header that should accompany it
+        if (isCachedClientSide(req, eTagBase, lastModified)) {
+            metrics.notModified.mark();
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        if (renderedPage != null) {
+            metrics.cacheHits.mark();
+        } else if (headOnly) {
+            resp.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+            resp.setHeader(HttpHeaders.ETAG, CachedPage.eTag(eTagBase, ContentEncoding.IDENTITY));
+            resp.setContentType(format.mediaType != null ? format.mediaType : mimeTypeOf(localSourceUrl));
+            resp.setHeader(ACCEPT_RANGES, "bytes");
+            return;
+        } else if (isAsync(req)) {
+            metrics.cacheMisses.mark();
+            renderAsync(req, resp, key);
+            return;
+        } else {
+            metrics.cacheMisses.mark();
+            try {
+                renderedPage = pageCache.get(key);
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof RenderUnavailableException)) {
+                    // No rendered page for some reason
+                    resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                    logger.error("Error when fetching cached/fresh rendered content", e);
+                    return;
+                }
+
+                renderedPage = renderUnavailable(resp, key);
+                if (renderedPage == null) {
+                    return;
+                }
+            }
+        }
+
+        send(req, resp, renderedPage, headOnly);
+    }
+
+    @Override
+    public void destroy() {
+        if (renderTimeouts != null) {
+            renderTimeouts.shutdownNow();
+        }
+        super.destroy();
+    }
+
+    private static Cache<PageKey, CachedPage> buildStalePages(long maximumBytes) {
+        if (maximumBytes > 0) {
+            return CacheBuilder.newBuilder()
+                    .maximumWeight(maximumBytes)
+                    .weigher((PageKey key, CachedPage page) -> page.weight())
+                    .build();
+        }
+        // Otherwise no more pages than the page cache itself could hold
+        return CacheBuilder.newBuilder().build();
+    }
+
+    private boolean isAsync(HttpServletRequest req) {
+        return configuration.isAsyncServing() && req.isAsyncSupported();
+    }
+
+    /**
+     * Render a page off the request thread, and send it once rendered.
+     */
+    private void renderAsync(HttpServletRequest req, HttpServletResponse resp, PageKey key) throws IOException {
+        AsyncContext asyncContext = startAsync(req, resp, renderTimeoutMillis + ASYNC_WRITE_TIMEOUT_MILLIS);
+
+        SharedRender render;
         try {
-            if (localSourceUrl != null && ResourceURL.isDirectory(localSourceUrl)) {
-                path = path + "/" + indexFile;
-                localSourceUrl = this.getClass().getResource(resourcePath + path);
+            render = asyncRender(key);
+        } catch (RejectedExecutionException e) {
+            metrics.renderRejections.mark();
+            try {
+                sendStaleOrUnavailable(req, resp, asyncContext, key);
+            } catch (Throwable t) {
+                abandon(asyncContext, "Stale page or error response could not be sent", t);
             }
-        } catch (URISyntaxException e) {
-            throw new ServletException(e);
+            return;
         }
 
-        // If it's not markdown, delegate to AssetServlet
-        if (path.endsWith(".md")) {
-            // No such resource
-            if (localSourceUrl == null) {
-                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
-                return;
+        // The render may be shared with other requests, so timing out this one only cancels it if none remain
+        Futures.addCallback(Futures.withTimeout(Futures.nonCancellationPropagating(render.task), renderTimeoutMillis, TimeUnit.MILLISECONDS, renderTimeouts),
+                new FutureCallback<CachedPage>() {
+                    @Override
+                    public void onSuccess(CachedPage page) {
+                        try {
+                            stalePages.invalidate(key);
+                            send(req, resp, page, false);
+                        } catch (Throwable t) {
+                            abandon(asyncContext, "Rendered page could not be sent", t);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(@NotNull Throwable t) {
+                        try {
+                            if (t instanceof TimeoutException) {
+                                render.leave();
+                                metrics.renderTimeouts.mark();
+                                logger.warn("Render of {} did not complete within {}ms", key, renderTimeoutMillis);
+                                sendStaleOrUnavailable(req, resp, asyncContext, key);
+                            } else {
+                                logger.error("Error when fetching cached/fresh rendered content", t);
+                                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                                asyncContext.complete();
+                            }
+                        } catch (Throwable e) {
+                            abandon(asyncContext, "Error response could not be sent", e);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Start asynchronous processing of a request, with a timeout after which the response is abandoned if it has not
+     * been completed, so that the connection is always reclaimed.
+     */
+    private AsyncContext startAsync(HttpServletRequest req, HttpServletResponse resp, long timeoutMillis) {
+        AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(timeoutMillis);
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                logger.warn("Response to {} was not completed within {}ms - abandoning it", req.getRequestURI(), timeoutMillis);
+                if (!resp.isCommitted()) {
+                    resp.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(renderTimeoutMillis))));
+                    resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                }
+                completeQuietly(event.getAsyncContext());
             }
 
-            // Content path was outside of the resource root path - path traversal attempt?
-            if (!localSourceUrl.toString().startsWith(resourceRootURL.toString())) {
-                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
-                logger.warn("Resolved asset URL ({}) was outside of resource root ({}) - possible path traversal attempt?", localSourceUrl, resourceRootURL);
-                return;
+            @Override
+            public void onError(AsyncEvent event) {
+                logger.debug("Asynchronous response to {} failed", req.getRequestURI(), event.getThrowable());
+                completeQuietly(event.getAsyncContext());
             }
 
-        } else if (path.endsWith("dropwizard-markdown.css")) {
-            if (localSourceUrl == null) {
-                // no override provided - use default
-                localSourceUrl = this.getClass().getResource("/default-dropwizard-markdown.css");
+            @Override
+            public void onComplete(AsyncEvent event) {
             }
 
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        return asyncContext;
+    }
+
+    /*
+     * Complete an asynchronous response that could not be sent, whatever went wrong, so that it never hangs
+     */
+    private static void abandon(AsyncContext asyncContext, String message, Throwable t) {
+        if (t instanceof IOException) {
+            // Typically the client went away
+            logger.debug(message, t);
         } else {
-            assetServlet.service(req, resp);
+            logger.error(message, t);
+        }
+        completeQuietly(asyncContext);
+    }
+
+    private static void completeQuietly(AsyncContext asyncContext) {
+        try {
+            asyncContext.complete();
+        } catch (IllegalStateException e) {
+            // Already completed, e.g. by its timeout
+            logger.debug("Asynchronous response was already complete", e);
+        }
+    }
+
+    /**
+     * Render a page on the render executor, sharing a render already under way for the same page.
+     * <p>
+     * The render task renders the page itself and then caches it, rather than waiting on the cache's loader: a load of
+     * the same page (e.g. by cache warming) may itself be waiting for a render thread, which would leave both waiting
+     * on each other until the render timeout.
+     *
+     * @return the render, which the caller has joined and must leave if it gives up waiting for it
+     * @throws RejectedExecutionException if the render executor is saturated
+     */
+    private SharedRender asyncRender(PageKey key) {
+        while (true) {
+            SharedRender render = asyncRenders.get(key);
+            if (render == null) {
+                SharedRender newRender = new SharedRender(ListenableFutureTask.create(() -> engine.putIfAbsent(key, renderPage(key))));
+                render = asyncRenders.putIfAbsent(key, newRender);
+                if (render == null) {
+                    newRender.join();
+                    newRender.task.addListener(() -> asyncRenders.remove(key, newRender), MoreExecutors.directExecutor());
+                    try {
+                        renderExecutor.execute(newRender.task);
+                    } catch (RejectedExecutionException e) {
+                        asyncRenders.remove(key, newRender);
+                        throw e;
+                    }
+                    return newRender;
+                }
+            }
+            if (render.join()) {
+                return render;
+            }
+            // Cancelled, as every request waiting for it timed out
+            asyncRenders.remove(key, render);
+        }
+    }
+
+    /*
+     * A render under way for one or more asynchronous requests, which is cancelled (freeing its render thread if it is
+     * blocked) once every one of them has given up waiting for it
+     */
+    private static final class SharedRender {
+        final ListenableFutureTask<CachedPage> task;
+        private int waiters;
+
+        SharedRender(ListenableFutureTask<CachedPage> task) {
+            this.task = task;
+        }
+
+        synchronized boolean join() {
+            if (task.isCancelled()) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        synchronized void leave() {
+            if (--waiters == 0) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    private void sendStaleOrUnavailable(HttpServletRequest req, HttpServletResponse resp, AsyncContext asyncContext,
+                                        PageKey key) throws IOException {
+        CachedPage stalePage = renderUnavailable(resp, key);
+        if (stalePage != null) {
+            send(req, resp, stalePage, false);
+        } else {
+            asyncContext.complete();
+        }
+    }
+
+    /**
+     * Handle a page that could not be rendered because rendering is overloaded.
+     *
+     * @return a stale version of the page to send instead, or null if there is none and an error has been sent
+     */
+    private CachedPage renderUnavailable(HttpServletResponse resp, PageKey key) throws IOException {
+        // Better to serve an outdated page than nothing
+        CachedPage stalePage = stalePages.getIfPresent(key);
+        if (stalePage == null) {
+            resp.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(renderTimeoutMillis))));
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return null;
+        }
+        metrics.staleServed.mark();
+        return stalePage;
+    }
+
+    /**
+     * Send a rendered page, or the range of it requested - without blocking, if serving asynchronously.
+     */
+    private void send(HttpServletRequest req, HttpServletResponse resp, CachedPage renderedPage, boolean headOnly) throws IOException {
+        if (renderedPage.isCompressed() && !resp.containsHeader(HttpHeaders.VARY)) {
+            resp.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        resp.setDateHeader(HttpHeaders.LAST_MODIFIED, renderedPage.lastModifiedTime);
+        resp.setContentType(renderedPage.mimeType);
+        resp.setHeader(ACCEPT_RANGES, "bytes");
+
+        // Ranges are served from the unencoded page, so that they are independent of the client's Accept-Encoding
+        ByteRange range = null;
+        if (isRangeApplicable(req, renderedPage)) {
+            range = ByteRange.parse(req.getHeader(RANGE), renderedPage.variantFor(null).length());
+        }
+
+        CachedPage.Variant variant = range != null ?
+                renderedPage.variantFor(null) :
+                renderedPage.variantFor(req.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        resp.setHeader(HttpHeaders.ETAG, variant.eTag);
+        if (variant.encoding != ContentEncoding.IDENTITY) {
+            resp.setHeader(HttpHeaders.CONTENT_ENCODING, variant.encoding.token);
+        }
+
+        ByteBuffer content = variant.content.duplicate();
+        if (range == ByteRange.UNSATISFIABLE) {
+            resp.setHeader(CONTENT_RANGE, range.contentRange(variant.length()));
+            resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            completeIfAsync(req);
             return;
+        } else if (range != null) {
+            resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            resp.setHeader(CONTENT_RANGE, range.contentRange(variant.length()));
+            content.position((int) range.start).limit((int) range.end + 1);
         }
+        resp.setContentLength(content.remaining());
 
-        // Go ahead and fetch the rendered page (cached if available)
+        if (headOnly) {
+            return;
+        }
+
+        // If reached here, we're sending the rendered page (or part of it) to the client
+        if (isAsync(req)) {
+            AsyncContext asyncContext = req.isAsyncStarted() ? req.getAsyncContext() : startAsync(req, resp, ASYNC_WRITE_TIMEOUT_MILLIS);
+            try {
+                ServletOutputStream outputStream = resp.getOutputStream();
+                outputStream.setWriteListener(new AsyncPageWriter(asyncContext, outputStream, content, variant.array(), metrics.bytesWritten));
+            } catch (Throwable t) {
+                completeQuietly(asyncContext);
+                throw t;
+            }
+            return;
+        }
+
+        int length = content.remaining();
+        try (ServletOutputStream outputStream = resp.getOutputStream()) {
+            if (outputStream instanceof HttpOutput) {
+                // Hand Jetty the cached buffer itself, rather than copying it through the stream
+                ((HttpOutput) outputStream).sendContent(content);
+            } else if (range == null) {
+                variant.writeTo(outputStream);
+            } else {
+                Channels.newChannel(outputStream).write(content);
+            }
+        }
+        metrics.bytesWritten.mark(length);
+    }
+
+    private static void completeIfAsync(HttpServletRequest req) {
+        if (req.isAsyncStarted()) {
+            req.getAsyncContext().complete();
+        }
+    }
+
+    /**
+     * Render every markdown page beneath the resource root into the page cache, in parallel.
+     *
+     * @param parallelism maximum number of pages to render concurrently
+     * @return the number of pages that were rendered successfully
+     * @throws InterruptedException if interrupted while waiting for rendering to complete
+     */
+    public int warmCache(int parallelism) throws InterruptedException {
+        return warmCache(url -> true, parallelism);
+    }
+
+    /**
+     * Render the markdown pages rendered from the given sources into the page cache, in parallel. Pages that are
+     * already cached are not rendered again.
+     *
+     * @param sources     predicate matching the source URLs of pages to render
+     * @param parallelism maximum number of pages to render concurrently
+     * @return the number of pages that were rendered successfully
+     * @throws InterruptedException if interrupted while waiting for rendering to complete
+     */
+    public int warmCache(@NotNull Predicate<URL> sources, int parallelism) throws InterruptedException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+
+        List<Callable<Boolean>> renderTasks = new ArrayList<>();
+        for (AssetIndex.ResolvedAsset asset : assetIndex.markdownAssets()) {
+            URL localSourceUrl = asset.url;
+            if (!sources.test(localSourceUrl)) {
+                continue;
+            }
+            renderTasks.add(() -> {
+                try {
+                    pageCache.get(new PageKey(pageLoader, localSourceUrl, PageFormat.PAGE));
+                    return true;
+                } catch (ExecutionException e) {
+                    logger.warn("Markdown page ({}) could not be rendered during cache warm-up", localSourceUrl, e);
+                    return false;
+                }
+            });
+        }
+
+        int rendered = runInParallel("markdown-warm-up-%d", parallelism, renderTasks);
+        logger.info("Warmed page cache with {} of {} markdown pages under {} in {}",
+                rendered, renderTasks.size(), resourceRootURL, stopwatch);
+        return rendered;
+    }
+
+    /**
+     * Parse every markdown page beneath the resource root into the search index and site navigation (whichever are
+     * enabled), in parallel. Pages are indexed again whenever they are re-parsed thereafter, so this need only be
+     * called once. Parsed pages are retained for rendering, so this also speeds up the first render of each page.
+     *
+     * @param parallelism maximum number of pages to parse concurrently
+     * @return the number of pages that were indexed successfully
+     * @throws InterruptedException if interrupted while waiting for indexing to complete
+     */
+    public int indexPages(int parallelism) throws InterruptedException {
+        Preconditions.checkState(searchIndex != null || siteIndex != null, "Neither search nor site navigation is enabled");
+        Stopwatch stopwatch = Stopwatch.createStarted();
+
+        List<Callable<Boolean>> indexTasks = new ArrayList<>();
+        for (AssetIndex.ResolvedAsset asset : assetIndex.markdownAssets()) {
+            URL localSourceUrl = asset.url;
+            indexTasks.add(() -> {
+                try {
+                    indexPage(localSourceUrl);
+                    return true;
+                } catch (IOException | URISyntaxException e) {
+                    logger.warn("Markdown page ({}) could not be indexed", localSourceUrl, e);
+                    return false;
+                }
+            });
+        }
+
+        int indexed = runInParallel("markdown-index-%d", parallelism, indexTasks);
+        logger.info("Indexed {} of {} markdown pages under {} in {}",
+                indexed, indexTasks.size(), resourceRootURL, stopwatch);
+        return indexed;
+    }
+
+    private static int runInParallel(String threadNameFormat, int parallelism, List<Callable<Boolean>> tasks) throws InterruptedException {
+        int succeeded = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setNameFormat(threadNameFormat).setDaemon(true).build());
         try {
-            renderedPage = pageCache.get(localSourceUrl);
-        } catch (ExecutionException e) {
-            // No rendered page for some reason
-            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
-            logger.error("Error when fetching cached/fresh rendered content", e);
+            for (Future<Boolean> result : executor.invokeAll(tasks)) {
+                if (Futures.getUnchecked(result)) {
+                    succeeded++;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return succeeded;
+    }
+
+    /**
+     * Render every markdown page beneath the resource root, and write them to a page pack. If the pack is then placed
+     * at {@code <resourcePath>/}{@value PagePack#PACK_NAME} on the class path, pages are served from it rather than
+     * rendered, for as long as their sources, the page template and rendering settings are unchanged.
+     *
+     * @param packFile file to write the pack to
+     * @return the number of pages written
+     * @throws IOException if a page could not be rendered or the pack could not be written
+     */
+    public int writePagePack(@NotNull Path packFile) throws IOException {
+        if (usesSiteNavigation()) {
+            // Every page includes the navigation of the whole site, so it must be complete before any are rendered
+            try {
+                indexPages(Runtime.getRuntime().availableProcessors());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while indexing pages");
+            }
+        }
+
+        PagePack.Writer writer = new PagePack.Writer(renderFingerprint);
+        for (AssetIndex.ResolvedAsset asset : assetIndex.markdownAssets()) {
+            String markdownSource = Resources.toString(asset.url, defaultCharset);
+            try {
+                String title = resourceRootURL.relativize(asset.url.toURI()).toString();
+                updateIncludes(asset.url);
+                String key = renderFingerprint.pageKey(keySource(asset.url, markdownSource), title, templateKey());
+                writer.add(key, renderMarkdown(markdownSource, title, asset.lastModified()));
+            } catch (URISyntaxException | TemplateException e) {
+                throw new IOException("Markdown page (" + asset.url + ") could not be rendered", e);
+            }
+        }
+        writer.writeTo(packFile);
+
+        logger.info("Wrote {} pre-rendered pages to {}", writer.size(), packFile);
+        return writer.size();
+    }
+
+    /**
+     * Discard cached pages rendered from the given sources, so that they are re-rendered on next request.
+     *
+     * @param sources predicate matching the source URLs of pages to invalidate
+     * @return the number of cached pages discarded, counting each format of a page separately
+     */
+    public int invalidate(@NotNull Predicate<URL> sources) {
+        Predicate<URL> rendered = pagesAffectedBy(sources);
+        int discarded = 0;
+        for (Iterator<PageKey> keys = pageCache.asMap().keySet().iterator(); keys.hasNext(); ) {
+            PageKey key = keys.next();
+            if (key.owner == pageLoader && rendered.test(key.url)) {
+                keys.remove();
+                discarded++;
+            }
+        }
+        // Pages that include a changed file are parsed again, with its new source spliced in
+        parsedPages.asMap().values().removeIf(parsedPage -> rendered.test(parsedPage.url));
+        URL stylesheetUrl = stylesheet != null ? stylesheet.lastUrl() : null;
+        if (stylesheetUrl != null && sources.test(stylesheetUrl)) {
+            invalidateCompletePages();
+        }
+        if (searchIndex != null || siteIndex != null) {
+            reindex(sources);
+        }
+        return discarded;
+    }
+
+    /**
+     * @param sources predicate matching the source URLs of changed files
+     * @return predicate matching the source URLs of pages rendered from the changed files, whether from their own
+     * sources or by including them
+     */
+    @NotNull
+    public Predicate<URL> pagesAffectedBy(@NotNull Predicate<URL> sources) {
+        // Pages that include a changed file must be rendered again too, though their own sources have not changed
+        Set<String> dependents = includeGraph != null ? includeGraph.dependents(sources) : ImmutableSet.of();
+        return dependents.isEmpty() ? sources : sources.or(url -> dependents.contains(url.toString()));
+    }
+
+    /**
+     * @param path request path, relative to the URI path (e.g. {@code /guide/setup.md}, or {@code /guide/} for the
+     *             directory's index file)
+     * @return predicate matching the source URL of the asset served at the path, if there is one
+     * @throws IOException if the path could not be resolved
+     */
+    @NotNull
+    public Predicate<URL> sourceAt(@NotNull String path) throws IOException {
+        URL source = assetIndex.resolve(path.endsWith("/") ? path + indexFile : path).url;
+        if (source == null) {
+            return url -> false;
+        }
+        String sourceUrl = source.toString();
+        return url -> url.toString().equals(sourceUrl);
+    }
+
+    /**
+     * @param pathPrefix request path prefix, relative to the URI path (e.g. {@code /guide/}, or {@code /} for every
+     *                   asset)
+     * @return predicate matching the source URLs of assets beneath the resource root at paths starting with the prefix
+     */
+    @NotNull
+    public Predicate<URL> sourcesUnder(@NotNull String pathPrefix) {
+        String root = resourceRootURL.toString();
+        String sourceUrlPrefix = (root.endsWith("/") ? root : root + "/") +
+                (pathPrefix.startsWith("/") ? pathPrefix.substring(1) : pathPrefix);
+        return url -> url.toString().startsWith(sourceUrlPrefix);
+    }
+
+    /*
+     * Re-index changed pages in the background, as they may not be requested (and so re-parsed) for some time
+     */
+    private void reindex(Predicate<URL> sources) {
+        // Keyed by the string forms of source URLs, as URL.equals and hashCode may resolve host names
+        Map<String, URL> changed = new HashMap<>();
+        for (AssetIndex.ResolvedAsset asset : assetIndex.markdownAssets()) {
+            if (sources.test(asset.url)) {
+                changed.put(asset.url.toString(), asset.url);
+            }
+        }
+        Set<String> indexedPaths = new HashSet<>();
+        if (searchIndex != null) {
+            indexedPaths.addAll(searchIndex.paths());
+        }
+        if (siteIndex != null) {
+            indexedPaths.addAll(siteIndex.paths());
+        }
+        for (String path : indexedPaths) {
+            try {
+                URL url = resourceRootURL.resolve(path).toURL();
+                if (sources.test(url)) {
+                    changed.put(url.toString(), url);
+                }
+            } catch (MalformedURLException e) {
+                removeFromIndexes(path);
+            }
+        }
+
+        for (URL localSourceUrl : changed.values()) {
+            try {
+                renderExecutor.execute(() -> {
+                    try {
+                        indexPage(localSourceUrl);
+                    } catch (IOException | URISyntaxException e) {
+                        // Most likely deleted
+                        logger.debug("Markdown page ({}) could not be re-indexed - removing it from the indexes", localSourceUrl, e);
+                        try {
+                            removeFromIndexes(resourceRootURL.relativize(localSourceUrl.toURI()).toString());
+                        } catch (URISyntaxException uriSyntaxException) {
+                            logger.debug("Markdown page ({}) could not be removed from the indexes", localSourceUrl, uriSyntaxException);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.warn("Markdown page ({}) could not be re-indexed, as the render executor is saturated", localSourceUrl);
+            }
+        }
+    }
+
+    private void removeFromIndexes(String path) {
+        if (searchIndex != null) {
+            searchIndex.remove(path);
+        }
+        if (siteIndex != null && siteIndex.remove(path) && pageTemplate.usesSiteNavigation()) {
+            invalidateCompletePages();
+        }
+    }
+
+    /*
+     * Complete pages may include the site navigation and stylesheet, so must be rendered again when either changes
+     */
+    private void invalidateCompletePages() {
+        pageCache.asMap().keySet().removeIf(key -> key.owner == pageLoader && key.format == PageFormat.PAGE && isMarkdown(key.url));
+    }
+
+    /**
+     * Discard all cached pages.
+     */
+    public void invalidateAll() {
+        pageCache.asMap().keySet().removeIf(key -> key.owner == pageLoader);
+        parsedPages.invalidateAll();
+    }
+
+    /**
+     * @return statistics for this servlet's cached pages: their number and total size, how many outdated pages are
+     * held in case they must be served, and the hit rate and render times of the engine's cache, which are those of
+     * every servlet sharing the engine
+     */
+    @NotNull
+    public Map<String, Object> cacheStatistics() {
+        long entries = 0;
+        long bytes = 0;
+        for (Map.Entry<PageKey, CachedPage> entry : pageCache.asMap().entrySet()) {
+            if (entry.getKey().owner == pageLoader) {
+                entries++;
+                bytes += entry.getValue().weight();
+            }
+        }
+        long hits = metrics.cacheHits.getCount();
+        long misses = metrics.cacheMisses.getCount();
+
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("entries", entries);
+        statistics.put("bytes", bytes);
+        statistics.put("staleEntries", stalePages.size());
+        statistics.put("hits", hits);
+        statistics.put("misses", misses);
+        statistics.put("hitRate", hits + misses > 0 ? (double) hits / (hits + misses) : null);
+        statistics.put("evictions", metrics.cacheEvictions.getCount());
+
+        Snapshot renderTimes = metrics.renderTotal.getSnapshot();
+        Map<String, Object> renderMillis = new LinkedHashMap<>();
+        renderMillis.put("count", metrics.renderTotal.getCount());
+        renderMillis.put("mean", renderTimes.getMean() / NANOS_PER_MILLI);
+        renderMillis.put("p50", renderTimes.getMedian() / NANOS_PER_MILLI);
+        renderMillis.put("p75", renderTimes.get75thPercentile() / NANOS_PER_MILLI);
+        renderMillis.put("p95", renderTimes.get95thPercentile() / NANOS_PER_MILLI);
+        renderMillis.put("p99", renderTimes.get99thPercentile() / NANOS_PER_MILLI);
+        renderMillis.put("max", renderTimes.getMax() / NANOS_PER_MILLI);
+        statistics.put("renderMillis", renderMillis);
+        return statistics;
+    }
+
+    /**
+     * Rebuild the index of request paths, after files have been added to or removed from the resource root.
+     *
+     * @throws IOException if the resource root could not be scanned
+     */
+    public void rescanResources() throws IOException {
+        assetIndex.rescan();
+    }
+
+    /**
+     * @return the URI of the root from which assets are loaded
+     */
+    @NotNull
+    public URI getResourceRootURL() {
+        return resourceRootURL;
+    }
+
+    private void search(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String query = req.getParameter("q");
+        if (query == null) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
             return;
         }
+        int limit = DEFAULT_SEARCH_RESULTS;
+        if (req.getParameter("limit") != null) {
+            try {
+                limit = Math.min(Integer.parseInt(req.getParameter("limit")), MAX_SEARCH_RESULTS);
+            } catch (NumberFormatException e) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        try (Timer.Context ignored = metrics.search.time()) {
+            String base = uriPath.endsWith("/") ? uriPath : uriPath + "/";
+            for (SearchIndex.Result result : searchIndex.search(query, limit)) {
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("url", base + result.path);
+                json.put("title", result.title);
+                json.put("score", result.score);
+                json.put("snippet", result.snippet);
+                results.add(json);
+            }
+        }
 
-        // Don't need to send the full page content back, as the client already has latest version
-        if (isCachedClientSide(req, renderedPage)) {
-            resp.sendError(HttpServletResponse.SC_NOT_MODIFIED);
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("query", query);
+        response.put("results", results);
+        sendBytes(resp, com.google.common.net.MediaType.JSON_UTF_8.toString(), JSON_MAPPER.writeValueAsBytes(response));
+    }
+
+    private void sendSiteNavigation(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        SiteNavigation navigation = siteIndex.navigation();
+        boolean json = PageFormat.select(req.getParameter(PageFormat.QUERY_PARAMETER), req.getHeader(HttpHeaders.ACCEPT)) == PageFormat.JSON;
+
+        String eTag = CachedPage.eTag(json ? PageFormat.JSON.eTagBase(navigation.getVersion()) : navigation.getVersion(), ContentEncoding.IDENTITY);
+        resp.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        resp.setHeader(HttpHeaders.ETAG, eTag);
+        String ifNoneMatch = req.getHeader(IF_NONE_MATCH);
+        if (ifNoneMatch != null && ETAG_LIST.splitToList(ifNoneMatch).contains(eTag)) {
+            metrics.notModified.mark();
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
             return;
         }
 
-        // If reached here, we're sending the full rendered page to the client
-        resp.setDateHeader(HttpHeaders.LAST_MODIFIED, renderedPage.lastModifiedTime);
-        resp.setHeader(HttpHeaders.ETAG, renderedPage.eTag);
-        resp.setContentType(renderedPage.mimeType);
+        if (json) {
+            sendBytes(resp, com.google.common.net.MediaType.JSON_UTF_8.toString(), navigation.jsonBytes);
+        } else {
+            sendBytes(resp, com.google.common.net.MediaType.HTML_UTF_8.toString(), navigation.htmlBytes);
+        }
+    }
 
-        try (OutputStream outputStream = resp.getOutputStream()) {
-            ByteStreams.copy(new ByteArrayInputStream(renderedPage.renderedBytes), outputStream);
+    private void sendBytes(HttpServletResponse resp, String contentType, byte[] body) throws IOException {
+        resp.setContentType(contentType);
+        resp.setContentLength(body.length);
+        try (ServletOutputStream outputStream = resp.getOutputStream()) {
+            outputStream.write(body);
+        }
+        metrics.bytesWritten.mark(body.length);
+    }
+
+    private boolean isCachedClientSide(HttpServletRequest req, String eTagBase, long lastModified) {
+        String ifNoneMatch = req.getHeader(IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // Any representation of the current version that the client accepts will do
+            Set<ContentEncoding> acceptable = EnumSet.of(ContentEncoding.IDENTITY);
+            acceptable.addAll(ContentEncoding.acceptableCompressions(req.getHeader(HttpHeaders.ACCEPT_ENCODING)));
+            for (String eTag : ETAG_LIST.split(ifNoneMatch)) {
+                if ("*".equals(eTag)) {
+                    return true;
+                }
+                for (ContentEncoding encoding : acceptable) {
+                    if (CachedPage.eTag(eTagBase, encoding).equals(eTag)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        // HTTP dates have a resolution of one second
+        long ifModifiedSince = req.getDateHeader(IF_MODIFIED_SINCE);
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private boolean isRangeApplicable(HttpServletRequest req, CachedPage renderedPage) {
+        if (req.getHeader(RANGE) == null) {
+            return false;
+        }
+        String ifRange = req.getHeader(IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(renderedPage.eTag);
+        }
+        long ifRangeDate = req.getDateHeader(IF_RANGE);
+        return ifRangeDate >= 0 && renderedPage.lastModifiedTime / 1000 <= ifRangeDate / 1000;
+    }
+
+    /**
+     * @return a value identifying the version of the page rendered from a source, derived from the source's last
+     * modified time and size and from everything else that affects rendering
+     */
+    private String eTagBase(URL localSourceUrl, long lastModified, long size) throws IOException {
+        Hasher hasher = Hashing.murmur3_128().newHasher()
+                .putString(renderFingerprint.toString(), StandardCharsets.UTF_8)
+                .putLong(lastModified)
+                .putLong(size);
+        if (isMarkdown(localSourceUrl)) {
+            hasher.putString(pageTemplate.getTemplateHash(), StandardCharsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @return a value identifying the version of a page in a given format, given the version of its source
+     */
+    private String eTagBase(URL localSourceUrl, String sourceETagBase, PageFormat format) throws IOException {
+        if (format == PageFormat.PAGE && (usesSiteNavigation() || stylesheet != null) && isMarkdown(localSourceUrl)) {
+            // Complete pages may include the site navigation and the stylesheet (or its versioned URL)
+            sourceETagBase = Hashing.murmur3_128().newHasher()
+                    .putString(sourceETagBase, StandardCharsets.UTF_8)
+                    .putString(usesSiteNavigation() ? siteIndex.navigation().getVersion() : "", StandardCharsets.UTF_8)
+                    .putString(stylesheet != null ? stylesheet.current().hash : "", StandardCharsets.UTF_8)
+                    .hash().toString();
+        }
+        return format.eTagBase(sourceETagBase);
+    }
+
+    /*
+     * Pages only change with the site navigation if the template uses it
+     */
+    private boolean usesSiteNavigation() {
+        return siteIndex != null && pageTemplate.usesSiteNavigation();
+    }
+
+    /**
+     * @return a hash of the page template, and of the site navigation and stylesheet if pages may include them
+     */
+    private String templateKey() throws IOException {
+        String key = pageTemplate.getTemplateHash();
+        if (usesSiteNavigation()) {
+            key += "-" + siteIndex.navigation().getVersion();
+        }
+        if (stylesheet != null) {
+            key += "-" + stylesheet.current().hash;
         }
+        return key;
     }
 
-    private boolean isCachedClientSide(HttpServletRequest req, CachedPage renderedPage) {
-        return Objects.equals(renderedPage.eTag, req.getHeader(IF_NONE_MATCH)) ||
-                req.getDateHeader(IF_MODIFIED_SINCE) >= renderedPage.lastModifiedTime;
+    private static boolean isMarkdown(URL localSourceUrl) {
+        return localSourceUrl.toString().endsWith(".md");
+    }
+
+    private static String mimeTypeOf(URL localSourceUrl) {
+        return isMarkdown(localSourceUrl) ? MediaType.TEXT_HTML : com.google.common.net.MediaType.CSS_UTF_8.toString();
+    }
+
+    /**
+     * Render a page on the render executor, waiting for it on the calling thread for no longer than the render timeout.
+     *
+     * @throws RenderUnavailableException if the render executor is saturated or the render timed out
+     */
+    private CachedPage renderOnExecutor(PageKey key) throws Exception {
+        Future<CachedPage> render;
+        try {
+            render = renderExecutor.submit(() -> renderPage(key));
+        } catch (RejectedExecutionException e) {
+            metrics.renderRejections.mark();
+            throw new RenderUnavailableException("Render of " + key + " was rejected, as the render executor is saturated");
+        }
 
+        try {
+            CachedPage page = render.get(renderTimeoutMillis, TimeUnit.MILLISECONDS);
+            stalePages.invalidate(key);
+            return page;
+        } catch (TimeoutException e) {
+            // Interrupting frees the render thread if the render is blocked on I/O, but not if it is busy parsing
+            render.cancel(true);
+            metrics.renderTimeouts.mark();
+            logger.warn("Render of {} did not complete within {}ms", key, renderTimeoutMillis);
+            throw new RenderUnavailableException("Render of " + key + " timed out");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /*
+     * A page could not be rendered in time, due to load rather than a problem with its source
+     */
+    private static class RenderUnavailableException extends Exception {
+        RenderUnavailableException(String message) {
+            super(message);
+        }
     }
 
     @NotNull
-    private CachedPage renderPage(URL localSourceUrl) throws IOException, URISyntaxException, TemplateException {
+    private CachedPage renderPage(PageKey key) throws IOException, URISyntaxException, TemplateException {
 
-        if (localSourceUrl.toString().endsWith(".md")) {
-            return renderMarkdown(localSourceUrl);
+        if (isMarkdown(key.url)) {
+            try (Timer.Context ignored = metrics.renderTotal.time()) {
+                return renderMarkdown(key.url, key.format);
+            }
         } else {
-            return renderLocalAsset(localSourceUrl);
+            return renderLocalAsset(key.url);
+        }
+    }
+
+    /**
+     * @return the time at which the page rendered from {@code localSourceUrl} last changed; for markdown pages this
+     * accounts for changes to the page template (and stylesheet, if pages depend on it) and to included files as well
+     * as the markdown source
+     */
+    private long lastModified(URL localSourceUrl) throws IOException {
+        long lastModified = ResourceURL.getLastModified(localSourceUrl);
+        if (isMarkdown(localSourceUrl)) {
+            lastModified = Math.max(lastModified, pageDependenciesLastModified());
+            lastModified = Math.max(lastModified, includesLastModified(localSourceUrl));
+        }
+        return lastModified;
+    }
+
+    /**
+     * @return the time at which any of the files a markdown page included when last rendered last changed, or 0 if
+     * it included none
+     */
+    private long includesLastModified(URL localSourceUrl) {
+        long lastModified = 0;
+        if (includeGraph != null) {
+            for (URL included : includeGraph.includes(localSourceUrl)) {
+                lastModified = Math.max(lastModified, ResourceURL.getLastModified(included));
+            }
+        }
+        return lastModified;
+    }
+
+    /**
+     * @return the time at which anything other than its source that a markdown page is rendered with last changed
+     */
+    private long pageDependenciesLastModified() throws IOException {
+        long lastModified = pageTemplate.sourcesLastModified();
+        if (stylesheet != null) {
+            lastModified = Math.max(lastModified, stylesheet.current().lastModified);
         }
+        return lastModified;
     }
 
     @NotNull
-    private CachedPage renderMarkdown(URL localSourceUrl) throws IOException, URISyntaxException, TemplateException {
-        String markdownSource;
+    private CachedPage renderMarkdown(URL localSourceUrl, PageFormat format) throws IOException, URISyntaxException, TemplateException {
+        // Found before the page's validators are derived, as they account for the files it includes
+        updateIncludes(localSourceUrl);
+
+        // Read before the source, so that a change made while rendering is picked up by the next revalidation
+        long lastModified = lastModified(localSourceUrl);
+        String sourceETagBase = eTagBase(localSourceUrl, lastModified, ResourceTree.size(localSourceUrl));
+
+        // A source already parsed for another format is reused, as long as it has not changed since
+        ParsedPage parsedPage = parsedPages.getIfPresent(localSourceUrl.toString());
+        if (parsedPage != null && !parsedPage.eTagBase.equals(sourceETagBase)) {
+            parsedPage = null;
+        }
+        String markdownSource = parsedPage != null ? parsedPage.source : loadSource(localSourceUrl);
+        String title = resourceRootURL.relativize(localSourceUrl.toURI()).toString();
+
+        if (format != PageFormat.PAGE || (pagePack == null && diskPageStore == null)) {
+            ParsedPage parsed = parsed(localSourceUrl, parsedPage, markdownSource, title, lastModified, sourceETagBase);
+            String navigationVersion = usesSiteNavigation() ? siteIndex.navigation().getVersion() : null;
+            CachedPage page = render(parsed, format, eTagBase(localSourceUrl, sourceETagBase, format));
+            if (format == PageFormat.PAGE && navigationVersion != null && !navigationVersion.equals(siteIndex.navigation().getVersion())) {
+                // Rendering changed this page's own headings in the site navigation, which the page must then include
+                page = render(parsed, format, eTagBase(localSourceUrl, sourceETagBase, format));
+            }
+            return page;
+        }
+
+        // Pages are keyed by everything that affects their rendering, so a pre-rendered or stored page is never stale
+        if (usesSiteNavigation()) {
+            // Ensure the site navigation is up to date with this page before keying it
+            parsedPage = parsed(localSourceUrl, parsedPage, markdownSource, title, lastModified, sourceETagBase);
+            indexHeadings(parsedPage);
+        }
+        String eTagBase = eTagBase(localSourceUrl, sourceETagBase, format);
+        String key = renderFingerprint.pageKey(keySource(localSourceUrl, markdownSource), title, templateKey());
+        CachedPage page = pagePack != null ? pagePack.get(key, lastModified) : null;
+        if (page != null) {
+            return page.withETags(eTagBase);
+        }
+        if (diskPageStore != null) {
+            page = diskPageStore.get(key, lastModified);
+        }
+        if (page == null) {
+            page = render(parsed(localSourceUrl, parsedPage, markdownSource, title, lastModified, sourceETagBase), format, eTagBase);
+            if (diskPageStore != null) {
+                diskPageStore.put(key, page);
+            }
+            return page;
+        }
+        return page.withETags(eTagBase);
+    }
+
+    /**
+     * Ensure the search index holds the current version of a page, parsing it if necessary.
+     */
+    private void indexPage(URL localSourceUrl) throws IOException, URISyntaxException {
+        // A current parse has already been indexed for search
+        indexHeadings(currentParse(localSourceUrl));
+    }
+
+    /*
+     * Ensure the site navigation holds the headings of a page that is not being rendered, rendering it for them alone
+     * if no render has captured them yet
+     */
+    private void indexHeadings(ParsedPage parsedPage) throws IOException {
+        if (siteIndex != null && !parsedPage.headingsIndexed) {
+            Node document = renderedDocument(parsedPage);
+            updateSiteNavigation(parsedPage, HeadingCapture.capture(() -> renderer.render(document, CharStreams.nullWriter())));
+        }
+    }
+
+    /*
+     * Headings are captured from a render, so that their anchor IDs are exactly those of the rendered page
+     */
+    private void updateSiteNavigation(ParsedPage parsedPage, List<PageHeading> headings) {
+        parsedPage.headingsIndexed = true;
+        if (siteIndex.update(parsedPage.title, headings) && pageTemplate.usesSiteNavigation()) {
+            invalidateCompletePages();
+        }
+    }
+
+    /**
+     * @return the cached parse of a markdown source if it is current, or otherwise the source freshly parsed
+     */
+    private ParsedPage currentParse(URL localSourceUrl) throws IOException, URISyntaxException {
+        long lastModified = lastModified(localSourceUrl);
+        String sourceETagBase = eTagBase(localSourceUrl, lastModified, ResourceTree.size(localSourceUrl));
+
+        ParsedPage parsedPage = parsedPages.getIfPresent(localSourceUrl.toString());
+        if (parsedPage == null || !parsedPage.eTagBase.equals(sourceETagBase)) {
+            String title = resourceRootURL.relativize(localSourceUrl.toURI()).toString();
+            parsedPage = parsed(localSourceUrl, null, loadSource(localSourceUrl), title, lastModified, sourceETagBase);
+        }
+        return parsedPage;
+    }
+
+    /*
+     * Record the files a page includes, directly or indirectly, as found in the include directives of its parsed
+     * source and theirs
+     */
+    private void updateIncludes(URL localSourceUrl) throws IOException, URISyntaxException {
+        if (includeGraph != null) {
+            Map<String, URL> included = new LinkedHashMap<>();
+            scanIncludes(localSourceUrl, new ArrayDeque<>(), included);
+            includeGraph.update(localSourceUrl, included.values());
+        }
+    }
+
+    /*
+     * URLs are compared by their string forms, as URL.equals and hashCode may resolve host names
+     */
+    private void scanIncludes(URL localSourceUrl, Deque<String> including, Map<String, URL> included) throws IOException, URISyntaxException {
+        including.addLast(localSourceUrl.toString());
+        try {
+            for (IncludeDirectives.Directive directive : currentParse(localSourceUrl).includes) {
+                String path = directive.path;
+                URL includedUrl = includeUrl(path);
+                if (includedUrl == null) {
+                    logger.warn("Markdown file ({}) included by {} was not found", path, localSourceUrl);
+                } else if (including.contains(includedUrl.toString()) || including.size() >= IncludeDirectives.MAX_DEPTH) {
+                    // Spliced in as a comment noting the cycle, rather than included
+                    logger.warn("Markdown file ({}) included by {} would be included cyclically", path, localSourceUrl);
+                } else if (included.putIfAbsent(includedUrl.toString(), includedUrl) == null) {
+                    try {
+                        scanIncludes(includedUrl, including, included);
+                    } catch (IOException e) {
+                        // Spliced in as a comment noting that it was not found
+                        logger.warn("Markdown file ({}) included by {} could not be loaded", path, localSourceUrl, e);
+                    }
+                }
+            }
+        } finally {
+            including.removeLast();
+        }
+    }
+
+    /**
+     * @return the source URL of the markdown file at a path relative to the resource root, or null if there is none
+     */
+    @Nullable
+    private URL includeUrl(String path) throws IOException {
+        AssetIndex.ResolvedAsset asset = assetIndex.resolve("/" + path);
+        return asset.kind == AssetIndex.ResolvedAsset.Kind.MARKDOWN ? asset.url : null;
+    }
+
+    /**
+     * @return the document a page is rendered from: its own, or if it includes other files, one parsed from its source
+     * with theirs spliced in
+     */
+    private Node renderedDocument(ParsedPage parsedPage) throws IOException {
+        if (includeGraph == null || parsedPage.includes.isEmpty()) {
+            return parsedPage.document;
+        }
+        Node splicedDocument = parsedPage.splicedDocument;
+        if (splicedDocument == null) {
+            StringBuilder source = new StringBuilder(parsedPage.source.length());
+            splice(parsedPage, new ArrayDeque<>(), source);
+            splicedDocument = parse(source.toString());
+            parsedPage.splicedDocument = splicedDocument;
+        }
+        return splicedDocument;
+    }
+
+    /*
+     * Included files are parsed once, and their sources and directives shared by every page that includes them
+     */
+    private void splice(ParsedPage parsedPage, Deque<String> including, StringBuilder source) throws IOException {
+        including.addLast(parsedPage.title);
         try {
-            markdownSource = Resources.toString(localSourceUrl, defaultCharset);
+            int end = 0;
+            for (IncludeDirectives.Directive directive : parsedPage.includes) {
+                source.append(parsedPage.source, end, directive.start);
+                end = directive.end;
+
+                String path = directive.path;
+                if (including.contains(path) || including.size() >= IncludeDirectives.MAX_DEPTH) {
+                    IncludeDirectives.comment(source, "include cycle: " + String.join(" -> ", including) + " -> " + path);
+                    continue;
+                }
+                URL includedUrl = includeUrl(path);
+                ParsedPage included;
+                try {
+                    included = includedUrl != null ? currentParse(includedUrl) : null;
+                } catch (IOException | URISyntaxException e) {
+                    included = null;
+                }
+                if (included == null) {
+                    IncludeDirectives.comment(source, "include not found: " + path);
+                    continue;
+                }
+
+                StringBuilder includedSource = new StringBuilder(included.source.length());
+                splice(included, including, includedSource);
+                IncludeDirectives.splice(source, includedSource);
+            }
+            source.append(parsedPage.source, end, parsedPage.source.length());
+        } finally {
+            including.removeLast();
+        }
+    }
+
+    /**
+     * @return the source to key a pre-rendered or stored page by: its own source, followed by those of the files it
+     * includes
+     */
+    private String keySource(URL localSourceUrl, String markdownSource) throws IOException, URISyntaxException {
+        if (includeGraph == null || includeGraph.includes(localSourceUrl).isEmpty()) {
+            return markdownSource;
+        }
+        StringBuilder source = new StringBuilder(markdownSource);
+        for (URL included : includeGraph.includes(localSourceUrl)) {
+            source.append('\0').append(currentParse(included).source);
+        }
+        return source.toString();
+    }
+
+    private String loadSource(URL localSourceUrl) throws IOException {
+        try (Timer.Context ignored = metrics.sourceLoad.time()) {
+            // Read no more than the limit (plus a byte to detect that it was exceeded), even if the size was unknown
+            byte[] source = Resources.asByteSource(localSourceUrl).slice(0, maxSourceSize + 1).read();
+            if (source.length > maxSourceSize) {
+                throw new IOException("Markdown source (at " + localSourceUrl + ") is larger than the maximum source size of " + maxSourceSize + " bytes");
+            }
+            return new String(source, defaultCharset);
         } catch (IOException e) {
             logger.error("Markdown source (at {}) could not be loaded", localSourceUrl);
             throw e;
         }
+    }
 
-        Node parsedMarkdown = parser.parse(markdownSource);
-        String html = renderer.render(parsedMarkdown);
+    /**
+     * @return {@code parsedPage} if not null, or otherwise the source freshly parsed, cached for other formats and
+     * indexed for search
+     */
+    private ParsedPage parsed(URL localSourceUrl, ParsedPage parsedPage, String markdownSource, String title,
+                              long lastModified, String sourceETagBase) {
+        if (parsedPage != null) {
+            return parsedPage;
+        }
+        Node document = parse(markdownSource);
+        parsedPage = new ParsedPage(localSourceUrl, markdownSource, document, title, lastModified, sourceETagBase,
+                includeGraph != null ? IncludeDirectives.find(document) : ImmutableList.of());
+        parsedPages.put(localSourceUrl.toString(), parsedPage);
+        if (searchIndex != null) {
+            searchIndex.update(title, parsedPage.document);
+        }
+        return parsedPage;
+    }
 
-        Configuration cfg = new Configuration(Configuration.VERSION_2_3_23);
-        Template template;
-        try {
-            cfg.setClassForTemplateLoading(this.getClass(), resourcePath);
-            template = cfg.getTemplate("template.ftl");
-        } catch (TemplateNotFoundException e) {
-            cfg.setClassForTemplateLoading(this.getClass(), "/");
-            template = cfg.getTemplate("default-dropwizard-markdown-template.ftl");
+    private Node parse(String markdownSource) {
+        try (Timer.Context ignored = metrics.parse.time()) {
+            return parser.parse(markdownSource);
         }
+    }
 
-        String title = resourceRootURL.relativize(localSourceUrl.toURI()).toString();
-        PageModel pageModel = new PageModel(html, title, configuration, uriPath);
+    /**
+     * Render markdown source as a complete HTML page.
+     *
+     * @param markdownSource markdown to render
+     * @param title          page title
+     * @param lastModified   time at which the source last changed
+     * @return the rendered page
+     */
+    @NotNull
+    CachedPage renderMarkdown(String markdownSource, String title, long lastModified) throws IOException, TemplateException {
+        ParsedPage parsedPage = new ParsedPage(null, markdownSource, parse(markdownSource), title, lastModified, "", ImmutableList.of());
+        return render(parsedPage, PageFormat.PAGE, null);
+    }
 
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            template.process(pageModel, new OutputStreamWriter(baos));
+    /**
+     * Render a parsed markdown source in the given format.
+     *
+     * @param parsedPage parsed source to render
+     * @param format     format to render the page in
+     * @param eTagBase   value to derive the page's ETags from, or null to derive them from the rendered page
+     * @return the rendered page
+     */
+    @NotNull
+    private CachedPage render(ParsedPage parsedPage, PageFormat format, String eTagBase) throws IOException, TemplateException {
+        HtmlFragment html = new HtmlFragment(renderedDocument(parsedPage), renderer, metrics.render);
+        int sourceLength = parsedPage.source.length();
+        RenderBuffer buffer = new RenderBuffer(sourceLength + sourceLength / 4 + TEMPLATE_SIZE_ALLOWANCE);
 
-            long lastModified = ResourceURL.getLastModified(localSourceUrl);
-            return new CachedPage(baos.toByteArray(), lastModified, MediaType.TEXT_HTML);
+        switch (format) {
+            case FRAGMENT:
+                Writer fragmentWriter = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+                html.writeTo(fragmentWriter);
+                fragmentWriter.flush();
+                break;
+            case JSON:
+                StringBuilder htmlBody = new StringBuilder(sourceLength + sourceLength / 4);
+                html.writeTo(htmlBody);
+
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("title", parsedPage.title);
+                json.put("lastModified", parsedPage.lastModified);
+                json.put("headings", html.headings());
+                json.put("html", htmlBody.toString());
+                JSON_MAPPER.writeValue(buffer, json);
+                break;
+            default:
+                // The HTML is rendered straight into the template output when the template reaches it
+                StylesheetVersion.Version stylesheetVersion = stylesheet != null ? stylesheet.current() : null;
+                PageModel pageModel = new PageModel(html, parsedPage.title, configuration, uriPath,
+                        siteIndex != null ? siteIndex.navigation() : null,
+                        stylesheetVersion != null && configuration.isVersionedStylesheetUrl() ?
+                                uriPath + stylesheetVersion.path().substring(1) :
+                                uriPath + AssetIndex.STYLESHEET_NAME,
+                        stylesheetVersion != null && configuration.isInlineStylesheet() ? stylesheetVersion.css : null);
+                try (Timer.Context ignored = metrics.template.time()) {
+                    Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+                    pageTemplate.get().process(pageModel, writer);
+                    writer.flush();
+                }
         }
+
+        if (siteIndex != null && parsedPage.url != null) {
+            // The headings of this render, unless the template never rendered the HTML
+            if (html.headings() != null) {
+                updateSiteNavigation(parsedPage, html.headings());
+            } else {
+                indexHeadings(parsedPage);
+            }
+        }
+        String mediaType = format.mediaType != null ? format.mediaType : MediaType.TEXT_HTML;
+        return new CachedPage(buffer.array(), buffer.size(), parsedPage.lastModified, mediaType, configuration.isDirectBuffers(), eTagBase);
     }
 
     private CachedPage renderLocalAsset(URL localSourceUrl) throws IOException {
-        return new CachedPage(Resources.toByteArray(localSourceUrl),
-                ResourceURL.getLastModified(localSourceUrl),
-                com.google.common.net.MediaType.CSS_UTF_8.toString());
+        long lastModified = lastModified(localSourceUrl);
+        String eTagBase = eTagBase(localSourceUrl, lastModified, ResourceTree.size(localSourceUrl));
+        byte[] source;
+        try (Timer.Context ignored = metrics.sourceLoad.time()) {
+            source = Resources.toByteArray(localSourceUrl);
+        }
+        return new CachedPage(source,
+                source.length,
+                lastModified,
+                mimeTypeOf(localSourceUrl),
+                configuration.isDirectBuffers(),
+                eTagBase);
     }
 }
\ No newline at end of file
@@ -0,0 +1,111 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary encoding of a {@link CachedPage} and all of its variants, for storage outside of memory.
+ * <p>
+ * Each encoded page starts with the key it was stored under, so that an entry which does not belong to the key it
+ * was looked up with (e.g. after rendering inputs changed) is detected and ignored. Variant content is laid out after
+ * the header, so that it can be served straight from a slice of the encoded buffer without copying.
+ */
+final class PageCodec {
+
+    private static final int MAGIC = 0x4D445047; // "MDPG"
+    private static final int VERSION = 1;
+
+    private PageCodec() {
+    }
+
+    /**
+     * @param out  stream to write the encoded page to
+     * @param key  key the page is being stored under
+     * @param page page to encode
+     * @throws IOException if the page could not be written
+     */
+    static void write(@NotNull DataOutputStream out, @NotNull String key, @NotNull CachedPage page) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, key);
+        writeString(out, page.mimeType);
+
+        out.writeInt(page.variants().size());
+        for (CachedPage.Variant variant : page.variants()) {
+            writeString(out, variant.encoding.name());
+            writeString(out, variant.eTag);
+            out.writeInt(variant.length());
+        }
+        for (CachedPage.Variant variant : page.variants()) {
+            variant.writeTo(out);
+        }
+    }
+
+    /**
+     * Decode a page, leaving {@code buffer} positioned after it. Variants share {@code buffer}'s content.
+     *
+     * @param buffer           buffer positioned at the start of an encoded page
+     * @param expectedKey      key the page is being looked up with, or null to accept any key
+     * @param lastModifiedTime time at which the page's source last changed
+     * @return the page, or null if the encoded page was stored under a different key, or is not a valid page
+     */
+    @Nullable
+    static CachedPage read(@NotNull ByteBuffer buffer, @Nullable String expectedKey, long lastModifiedTime) {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            String key = readString(buffer);
+            if (expectedKey != null && !expectedKey.equals(key)) {
+                return null;
+            }
+            String mimeType = readString(buffer);
+
+            int variantCount = buffer.getInt();
+            ContentEncoding[] encodings = new ContentEncoding[variantCount];
+            String[] eTags = new String[variantCount];
+            int[] lengths = new int[variantCount];
+            for (int i = 0; i < variantCount; i++) {
+                encodings[i] = ContentEncoding.valueOf(readString(buffer));
+                eTags[i] = readString(buffer);
+                lengths[i] = buffer.getInt();
+            }
+
+            List<CachedPage.Variant> variants = new ArrayList<>(variantCount);
+            for (int i = 0; i < variantCount; i++) {
+                ByteBuffer content = buffer.slice();
+                content.limit(lengths[i]);
+                buffer.position(buffer.position() + lengths[i]);
+                variants.add(new CachedPage.Variant(encodings[i], content, eTags[i]));
+            }
+            return new CachedPage(lastModifiedTime, mimeType, variants);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // Truncated or otherwise corrupt
+            return null;
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
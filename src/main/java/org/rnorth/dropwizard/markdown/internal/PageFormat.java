@@ -0,0 +1,115 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.base.Splitter;
+import com.google.common.net.MediaType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * The output formats a markdown page can be served in, all produced from the same parsed document.
+ * <p>
+ * A format is chosen with a {@code format} query parameter ({@code page}, {@code fragment} or {@code json}), or
+ * otherwise by the {@code Accept} header: {@code application/json} selects {@link #JSON}, and
+ * {@code text/html;variant=fragment} selects {@link #FRAGMENT}, whichever has the highest quality ({@code q}).
+ */
+enum PageFormat {
+
+    /** The complete page, rendered through the page template */
+    PAGE("page", null),
+    /** Only the HTML rendered from the markdown, for embedding in another page */
+    FRAGMENT("fragment", MediaType.HTML_UTF_8.toString()),
+    /** The page's title, HTML body and headings, as a JSON object */
+    JSON("json", MediaType.JSON_UTF_8.toString());
+
+    static final String QUERY_PARAMETER = "format";
+
+    private static final Splitter ACCEPT_LIST = Splitter.on(',').trimResults().omitEmptyStrings();
+    private static final String VARIANT_PARAMETER = "variant";
+    private static final String QUALITY_PARAMETER = "q";
+
+    final String token;
+
+    /*
+     * Media type of the format, or null for the type of the source's own rendering
+     */
+    final String mediaType;
+
+    PageFormat(String token, String mediaType) {
+        this.token = token;
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * @param eTagBase value identifying the version of a page's source
+     * @return value identifying the version of the page in this format
+     */
+    @NotNull
+    String eTagBase(@NotNull String eTagBase) {
+        return this == PAGE ? eTagBase : eTagBase + "-" + token;
+    }
+
+    /**
+     * @param formatParameter value of the {@code format} query parameter
+     * @param accept          value of the {@code Accept} header
+     * @return the format requested, defaulting to {@link #PAGE}, or null if the parameter names no known format; the
+     * {@code Accept} header is negotiated by quality, ignoring formats it marks unacceptable ({@code q=0})
+     */
+    @Nullable
+    static PageFormat select(@Nullable String formatParameter, @Nullable String accept) {
+        if (formatParameter != null) {
+            for (PageFormat format : values()) {
+                if (format.token.equalsIgnoreCase(formatParameter)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+
+        if (accept != null) {
+            // The acceptable format of highest quality, or of those of equal quality the first listed
+            PageFormat best = null;
+            float bestQuality = 0f;
+            for (String acceptedType : ACCEPT_LIST.split(accept)) {
+                MediaType mediaType;
+                try {
+                    mediaType = MediaType.parse(acceptedType);
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                PageFormat format = null;
+                if (mediaType.is(MediaType.JSON_UTF_8.withoutParameters()) && !mediaType.hasWildcard()) {
+                    format = JSON;
+                } else if (mediaType.is(MediaType.HTML_UTF_8.withoutParameters()) && !mediaType.hasWildcard()) {
+                    format = mediaType.parameters().get(VARIANT_PARAMETER).contains(FRAGMENT.token) ? FRAGMENT : PAGE;
+                }
+                float quality = quality(mediaType);
+                if (format != null && quality > bestQuality) {
+                    best = format;
+                    bestQuality = quality;
+                }
+            }
+            if (best != null) {
+                return best;
+            }
+        }
+        return PAGE;
+    }
+
+    /*
+     * A media range's quality (q) parameter, where 0 means not acceptable; ranges without one, or with one that cannot
+     * be parsed, are fully acceptable
+     */
+    private static float quality(MediaType mediaType) {
+        List<String> quality = mediaType.parameters().get(QUALITY_PARAMETER);
+        if (quality.isEmpty()) {
+            return 1f;
+        }
+        try {
+            return Float.parseFloat(quality.get(0).trim());
+        } catch (NumberFormatException e) {
+            return 1f;
+        }
+    }
+}
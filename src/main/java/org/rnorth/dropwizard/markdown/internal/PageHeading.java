@@ -0,0 +1,37 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+/**
+ * A heading within a rendered page.
+ */
+public class PageHeading {
+    private final int level;
+    private final String text;
+    private final String id;
+
+    public PageHeading(int level, String text, String id) {
+        this.level = level;
+        this.text = text;
+        this.id = id;
+    }
+
+    /**
+     * @return heading level, from 1 to 6
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return plain text of the heading
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return anchor ID of the heading in the rendered page, or null if it has none
+     */
+    public String getId() {
+        return id;
+    }
+}
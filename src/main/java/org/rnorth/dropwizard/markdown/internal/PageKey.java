@@ -0,0 +1,46 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.URL;
+import java.util.Objects;
+
+/**
+ * Key of a cached page: the servlet it belongs to (as the page cache may be shared), the source it was rendered from,
+ * and the format it was rendered in.
+ */
+final class PageKey {
+
+    final PageLoader owner;
+    final URL url;
+    final PageFormat format;
+
+    PageKey(@NotNull PageLoader owner, @NotNull URL url, @NotNull PageFormat format) {
+        this.owner = owner;
+        this.url = url;
+        this.format = format;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PageKey)) {
+            return false;
+        }
+        PageKey other = (PageKey) o;
+        // URL.equals may resolve host names, so compare string forms
+        return owner == other.owner && url.toString().equals(other.url.toString()) && format == other.format;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(System.identityHashCode(owner), url.toString(), format);
+    }
+
+    @Override
+    public String toString() {
+        return url + " (" + format.token + ")";
+    }
+}
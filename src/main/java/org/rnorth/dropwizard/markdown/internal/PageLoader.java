@@ -0,0 +1,33 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.cache.RemovalCause;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Renders the pages a servlet owns within a {@link RenderEngine}'s page cache, which may be shared with other servlets.
+ */
+interface PageLoader {
+
+    /**
+     * @see com.google.common.cache.CacheLoader#load(Object)
+     */
+    @NotNull
+    CachedPage load(@NotNull PageKey key) throws Exception;
+
+    /**
+     * @see com.google.common.cache.CacheLoader#reload(Object, Object)
+     */
+    @NotNull
+    ListenableFuture<CachedPage> reload(@NotNull PageKey key, @NotNull CachedPage oldValue) throws Exception;
+
+    /**
+     * Called when one of this loader's pages is removed from the cache.
+     *
+     * @param key   key of the page
+     * @param page  the page, or null if it has been garbage collected
+     * @param cause reason for its removal
+     */
+    void removed(@NotNull PageKey key, @Nullable CachedPage page, @NotNull RemovalCause cause);
+}
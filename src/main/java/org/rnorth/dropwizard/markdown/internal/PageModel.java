@@ -7,19 +7,45 @@ import org.rnorth.dropwizard.markdown.MarkdownAssetsConfiguration;
  * Created by rnorth on 29/09/2016.
  */
 public class PageModel {
-    private final String html;
+    private final HtmlFragment html;
     private final String title;
     private final MarkdownAssetsConfiguration configuration;
     private final String uriPath;
+    private final SiteNavigation site;
+    private final String stylesheetUrl;
+    private final String inlineStylesheet;
 
     public PageModel(String html, String title, MarkdownAssetsConfiguration configuration, String uriPath) {
+        this(new HtmlFragment(html), title, configuration, uriPath, null);
+    }
+
+    public PageModel(HtmlFragment html, String title, MarkdownAssetsConfiguration configuration, String uriPath, SiteNavigation site) {
+        this(html, title, configuration, uriPath, site, uriPath + AssetIndex.STYLESHEET_NAME, null);
+    }
+
+    public PageModel(HtmlFragment html, String title, MarkdownAssetsConfiguration configuration, String uriPath,
+                     SiteNavigation site, String stylesheetUrl, String inlineStylesheet) {
         this.html = html;
         this.title = title;
         this.configuration = configuration;
         this.uriPath = uriPath;
+        this.site = site;
+        this.stylesheetUrl = stylesheetUrl;
+        this.inlineStylesheet = inlineStylesheet;
     }
 
+    /**
+     * @return the rendered HTML, as a string
+     */
     public String getHtml() {
+        return html.toString();
+    }
+
+    /**
+     * @return the rendered HTML, which as a directive ({@code <@htmlFragment/>}) is rendered straight into the
+     * template's output
+     */
+    public HtmlFragment getHtmlFragment() {
         return html;
     }
 
@@ -40,7 +66,8 @@ public class PageModel {
     }
 
     public boolean isUseHlJs() {
-        return configuration.isEnableHlJs();
+        // Pages highlighted when rendered need no highlighting in the browser
+        return configuration.isEnableHlJs() && !configuration.isServerSideHighlighting();
     }
 
     public String getCopyrightFooter() {
@@ -50,4 +77,25 @@ public class PageModel {
     public String getUriPath() {
         return uriPath;
     }
+
+    /**
+     * @return URL of the stylesheet, which includes a hash of its content if versioned stylesheet URLs are enabled
+     */
+    public String getStylesheetUrl() {
+        return stylesheetUrl;
+    }
+
+    /**
+     * @return content of the stylesheet, or null unless it should be included inline
+     */
+    public String getInlineStylesheet() {
+        return inlineStylesheet;
+    }
+
+    /**
+     * @return navigation for the whole site, or null if site navigation is not enabled
+     */
+    public SiteNavigation getSite() {
+        return site;
+    }
 }
@@ -0,0 +1,193 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.io.Resources;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read-only set of pages rendered ahead of time (typically at build time), shipped on the class path alongside the
+ * markdown sources as {@value #PACK_NAME}.
+ * <p>
+ * Pages are indexed by the same key used by {@link DiskPageStore} (see {@link RenderFingerprint}), so a page from the
+ * pack is only ever served if it would render identically now; sources added or edited since the pack was built are
+ * simply rendered as usual. The pack is held in a single buffer - mapped, if it is a file - and pages are served from
+ * slices of it without copying.
+ */
+class PagePack {
+
+    static final String PACK_NAME = "markdown-pages.pack";
+
+    private static final int MAGIC = 0x4D44504B; // "MDPK"
+    private static final int VERSION = 1;
+
+    private final Map<String, ByteBuffer> pages;
+
+    private static final Logger logger = LoggerFactory.getLogger(PagePack.class);
+
+    private PagePack(Map<String, ByteBuffer> pages) {
+        this.pages = pages;
+    }
+
+    /**
+     * Load the pack from a resource path, if one is present and was built with matching rendering settings.
+     *
+     * @param resourcePath the class path location that assets are loaded from
+     * @param fingerprint  fingerprint of the current rendering settings
+     * @param direct       whether to hold the pack in a direct buffer, when it cannot be mapped
+     * @return the pack, or null if there is none that can be used
+     * @throws IOException if a pack is present but could not be read
+     */
+    @Nullable
+    static PagePack load(@NotNull String resourcePath, @NotNull RenderFingerprint fingerprint, boolean direct) throws IOException {
+        String packPath = resourcePath.endsWith("/") ? resourcePath + PACK_NAME : resourcePath + "/" + PACK_NAME;
+        URL packUrl = PagePack.class.getResource(packPath);
+        if (packUrl == null) {
+            return null;
+        }
+
+        ByteBuffer buffer = read(packUrl, direct);
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                logger.warn("Page pack ({}) is not in a supported format - ignoring it", packUrl);
+                return null;
+            }
+            String packFingerprint = PageCodec.readString(buffer);
+            if (!packFingerprint.equals(fingerprint.toString())) {
+                logger.warn("Page pack ({}) was built with different extensions, options or configuration - ignoring it", packUrl);
+                return null;
+            }
+
+            int count = buffer.getInt();
+            Map<String, int[]> offsets = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = PageCodec.readString(buffer);
+                offsets.put(key, new int[]{buffer.getInt(), buffer.getInt()});
+            }
+
+            ByteBuffer content = buffer.slice();
+            Map<String, ByteBuffer> pages = new HashMap<>();
+            for (Map.Entry<String, int[]> entry : offsets.entrySet()) {
+                ByteBuffer page = content.duplicate();
+                page.position(entry.getValue()[0]).limit(entry.getValue()[0] + entry.getValue()[1]);
+                pages.put(entry.getKey(), page.slice().asReadOnlyBuffer());
+            }
+
+            logger.info("Loaded {} pre-rendered pages from {}", pages.size(), packUrl);
+            return new PagePack(pages);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Page pack (" + packUrl + ") is corrupt", e);
+        }
+    }
+
+    /**
+     * @param key              key of the page
+     * @param lastModifiedTime time at which the page's source last changed
+     * @return the pre-rendered page, or null if the pack does not contain it
+     */
+    @Nullable
+    CachedPage get(@NotNull String key, long lastModifiedTime) {
+        ByteBuffer page = pages.get(key);
+        if (page == null) {
+            return null;
+        }
+        return PageCodec.read(page.duplicate(), key, lastModifiedTime);
+    }
+
+    /**
+     * Builds a pack file.
+     */
+    static class Writer {
+
+        private final String fingerprint;
+        private final Map<String, byte[]> pages = new LinkedHashMap<>();
+
+        Writer(@NotNull RenderFingerprint fingerprint) {
+            this.fingerprint = fingerprint.toString();
+        }
+
+        /**
+         * @param key  key of the page
+         * @param page rendered page
+         * @throws IOException if the page could not be encoded
+         */
+        void add(@NotNull String key, @NotNull CachedPage page) throws IOException {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(encoded)) {
+                PageCodec.write(out, key, page);
+            }
+            pages.put(key, encoded.toByteArray());
+        }
+
+        /**
+         * @return the number of pages added
+         */
+        int size() {
+            return pages.size();
+        }
+
+        /**
+         * @param file file to write the pack to, replacing any existing file
+         * @throws IOException if the pack could not be written
+         */
+        void writeTo(@NotNull Path file) throws IOException {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                PageCodec.writeString(out, fingerprint);
+
+                out.writeInt(pages.size());
+                int offset = 0;
+                for (Map.Entry<String, byte[]> page : pages.entrySet()) {
+                    PageCodec.writeString(out, page.getKey());
+                    out.writeInt(offset);
+                    out.writeInt(page.getValue().length);
+                    offset += page.getValue().length;
+                }
+                for (byte[] page : pages.values()) {
+                    out.write(page);
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer read(URL packUrl, boolean direct) throws IOException {
+        if ("file".equals(packUrl.getProtocol())) {
+            try (FileChannel channel = FileChannel.open(Paths.get(packUrl.toURI()), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (URISyntaxException e) {
+                throw new IOException("Page pack URL (" + packUrl + ") is invalid", e);
+            }
+        }
+
+        // e.g. a jar entry, which cannot be mapped
+        byte[] bytes = Resources.toByteArray(packUrl);
+        if (direct) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes).flip();
+            return buffer;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,195 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Resources;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import io.dropwizard.servlets.assets.ResourceURL;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Holds the FreeMarker {@link Configuration} and the compiled page template used by a {@link MarkdownAssetsServlet}.
+ * <p>
+ * The template is chosen once (a {@code template.ftl} in the resource path if present, otherwise the bundled default)
+ * and parsed once. The compiled {@link Template} is shared by all rendering threads, and is only re-parsed when the
+ * last modified time of the template source, or of a template it includes or imports, changes.
+ */
+class PageTemplate {
+
+    static final String CUSTOM_TEMPLATE_NAME = "template.ftl";
+    static final String DEFAULT_TEMPLATE_NAME = "default-dropwizard-markdown-template.ftl";
+    static final String TEMPLATE_EXTENSION = ".ftl";
+
+    /*
+     * Any mention of the site navigation, or an include/import of another template that might mention it
+     */
+    private static final Pattern SITE_NAVIGATION_USE = Pattern.compile("\\bsite\\b|#include|#import");
+
+    /*
+     * An include or import of another template by a literal name, e.g. <#include "footer.ftl">
+     */
+    private static final Pattern TEMPLATE_DEPENDENCY = Pattern.compile("<#(?:include|import)\\s+([\"'])(.+?)\\1");
+
+    private final Configuration freemarkerConfiguration;
+    private final String templateBasePath;
+    private final URL templateUrl;
+    private final String templateName;
+
+    private volatile Template template;
+    private volatile List<URL> dependencyUrls = ImmutableList.of();
+    private volatile long templateLastModified;
+    private volatile String templateHash;
+    private volatile boolean usesSiteNavigation;
+
+    private static final Logger logger = LoggerFactory.getLogger(PageTemplate.class);
+
+    PageTemplate(@NotNull String resourcePath) throws IOException {
+        freemarkerConfiguration = new Configuration(Configuration.VERSION_2_3_23);
+        // Used to resolve any includes/imports made by a custom template
+        freemarkerConfiguration.setClassForTemplateLoading(this.getClass(), resourcePath);
+        templateBasePath = resourcePath.endsWith("/") ? resourcePath : resourcePath + "/";
+
+        URL customTemplateUrl = this.getClass().getResource(templateBasePath + CUSTOM_TEMPLATE_NAME);
+        if (customTemplateUrl != null) {
+            templateUrl = customTemplateUrl;
+            templateName = CUSTOM_TEMPLATE_NAME;
+        } else {
+            templateUrl = this.getClass().getResource("/" + DEFAULT_TEMPLATE_NAME);
+            templateName = DEFAULT_TEMPLATE_NAME;
+        }
+        Preconditions.checkNotNull(templateUrl, "Page template (" + templateName + ") was not found");
+
+        reload();
+    }
+
+    /**
+     * @return the compiled template, re-parsed first if its source has changed since it was last parsed
+     * @throws IOException if the template source has changed but could not be re-parsed
+     */
+    @NotNull
+    Template get() throws IOException {
+        reloadIfChanged();
+        return template;
+    }
+
+    /**
+     * @return the latest last modified time of the template source and of the templates it includes or imports
+     */
+    long sourcesLastModified() {
+        long lastModified = ResourceURL.getLastModified(templateUrl);
+        for (URL dependencyUrl : dependencyUrls) {
+            lastModified = Math.max(lastModified, ResourceURL.getLastModified(dependencyUrl));
+        }
+        return lastModified;
+    }
+
+    /**
+     * @return a hash of the template source and of the templates it includes or imports, re-parsing it first if any
+     * of them have changed since it was last parsed
+     * @throws IOException if the template source has changed but could not be re-parsed
+     */
+    @NotNull
+    String getTemplateHash() throws IOException {
+        reloadIfChanged();
+        return templateHash;
+    }
+
+    /**
+     * @return whether the template may use the site navigation, as of when it was last parsed
+     */
+    boolean usesSiteNavigation() {
+        return usesSiteNavigation;
+    }
+
+    /**
+     * @return the last modified time of the template source, as of when it was last parsed
+     */
+    long getLastModified() {
+        return templateLastModified;
+    }
+
+    private void reloadIfChanged() throws IOException {
+        if (sourcesLastModified() != templateLastModified) {
+            synchronized (this) {
+                if (sourcesLastModified() != templateLastModified) {
+                    logger.info("Page template ({}) has changed - reloading", templateUrl);
+                    reload();
+                }
+            }
+        }
+    }
+
+    private synchronized void reload() throws IOException {
+        String source = Resources.toString(templateUrl, StandardCharsets.UTF_8);
+
+        // Included and imported templates are part of the hash, so that a change to one changes every page
+        Hasher hasher = Hashing.murmur3_128().newHasher().putString(source, StandardCharsets.UTF_8);
+        Map<String, URL> dependencies = new LinkedHashMap<>();
+        addDependencies(templateName, source, hasher, dependencies);
+        dependencyUrls = ImmutableList.copyOf(dependencies.values());
+        long lastModified = sourcesLastModified();
+
+        template = new Template(templateName, new StringReader(source), freemarkerConfiguration);
+        templateHash = hasher.hash().toString();
+        usesSiteNavigation = SITE_NAVIGATION_USE.matcher(source).find();
+        templateLastModified = lastModified;
+    }
+
+    /*
+     * Templates named by an expression rather than a literal, or not found, are hashed by name alone; templates are
+     * keyed by name, as URL.equals and hashCode may resolve host names
+     */
+    private void addDependencies(String name, String source, Hasher hasher, Map<String, URL> dependencies) throws IOException {
+        Matcher matcher = TEMPLATE_DEPENDENCY.matcher(source);
+        while (matcher.find()) {
+            String dependencyName = resolveName(name, matcher.group(2));
+            hasher.putChar('\0').putString(dependencyName != null ? dependencyName : matcher.group(2), StandardCharsets.UTF_8);
+            if (dependencyName == null || dependencies.containsKey(dependencyName)) {
+                continue;
+            }
+            URL dependencyUrl = this.getClass().getResource(templateBasePath + dependencyName);
+            if (dependencyUrl != null) {
+                dependencies.put(dependencyName, dependencyUrl);
+                String dependencySource = Resources.toString(dependencyUrl, StandardCharsets.UTF_8);
+                hasher.putChar('\0').putString(dependencySource, StandardCharsets.UTF_8);
+                addDependencies(dependencyName, dependencySource, hasher, dependencies);
+            }
+        }
+    }
+
+    /*
+     * Template names are relative to the directory of the template naming them, or to the template root if they start
+     * with a slash
+     */
+    private static String resolveName(String baseName, String name) {
+        if (name.contains("${") || name.contains("*")) {
+            return null;
+        }
+        String resolved;
+        try {
+            resolved = URI.create(baseName).resolve(name).getPath();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        while (resolved.startsWith("/")) {
+            resolved = resolved.substring(1);
+        }
+        return resolved.startsWith("..") ? null : resolved;
+    }
+}
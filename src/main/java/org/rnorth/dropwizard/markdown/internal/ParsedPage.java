@@ -0,0 +1,60 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.vladsch.flexmark.ast.Node;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URL;
+import java.util.List;
+
+/**
+ * A parsed markdown source, shared by every format the page is served in.
+ */
+class ParsedPage {
+
+    /*
+     * Source URL the page was parsed from, or null if it was not parsed from a source file
+     */
+    final URL url;
+
+    final String source;
+
+    /*
+     * Document parsed from the page's own source
+     */
+    final Node document;
+
+    final String title;
+    final long lastModified;
+
+    /*
+     * Identifies the version of the source this was parsed from, so that an outdated parse is never reused
+     */
+    final String eTagBase;
+
+    /*
+     * Include directives of the page's own source, in order
+     */
+    final List<IncludeDirectives.Directive> includes;
+
+    /*
+     * Document parsed from the page's source with the files it includes spliced in, once it has been rendered
+     */
+    volatile Node splicedDocument;
+
+    /*
+     * Set once the page's headings have been captured into the site navigation
+     */
+    volatile boolean headingsIndexed;
+
+    ParsedPage(@Nullable URL url, @NotNull String source, @NotNull Node document, @NotNull String title, long lastModified,
+               @NotNull String eTagBase, @NotNull List<IncludeDirectives.Directive> includes) {
+        this.url = url;
+        this.source = source;
+        this.document = document;
+        this.title = title;
+        this.lastModified = lastModified;
+        this.eTagBase = eTagBase;
+        this.includes = includes;
+    }
+}
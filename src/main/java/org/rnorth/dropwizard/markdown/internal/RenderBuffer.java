@@ -0,0 +1,20 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A byte array output stream, pre-sized for the expected output, whose contents can be taken without copying.
+ */
+class RenderBuffer extends ByteArrayOutputStream {
+
+    RenderBuffer(int expectedSize) {
+        super(expectedSize);
+    }
+
+    /**
+     * @return the buffer's backing array, of which the first {@link #size()} bytes are valid
+     */
+    byte[] array() {
+        return buf;
+    }
+}
@@ -0,0 +1,316 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.vladsch.flexmark.Extension;
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.options.DataHolder;
+import io.dropwizard.util.Size;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The resources with which {@link MarkdownAssetsServlet}s render and cache pages: flexmark parsers and renderers, the
+ * executor that rendering happens on, the page cache and metrics.
+ * <p>
+ * Each servlet may have an engine of its own, or several may share one, so that they share a single render pool and
+ * a single memory budget for cached pages rather than each being provisioned for its own peak. Parsers and renderers
+ * are shared by every servlet using the same extensions and options. A servlet sharing an engine may be given a quota,
+ * beyond which its own pages are evicted to make room for its new ones, so that one servlet cannot take the whole
+ * budget.
+ */
+public class RenderEngine {
+
+    private final ExecutorService renderExecutor;
+    private final ExecutorService quotaEnforcer;
+    private final MarkdownAssetsMetrics metrics;
+    private final LoadingCache<PageKey, CachedPage> pageCache;
+
+    private final Map<String, Processors> processors = new ConcurrentHashMap<>();
+    private final Map<PageLoader, Quota> quotas = new ConcurrentHashMap<>();
+    private final Set<PageKey> quotaEvictions = ConcurrentHashMap.newKeySet();
+    private final long maximumCacheBytes;
+    private boolean weighed;
+
+    /**
+     * @param renderExecutor   executor on which pages are rendered
+     * @param metrics          metrics to record rendering and serving activity with
+     * @param cacheBuilderSpec {@link CacheBuilderSpec} for rendered pages; unless this specifies a {@code maximumSize},
+     *                         pages are weighed by their size in bytes
+     * @param maximumCacheSize upper bound on the total size of cached pages, or null for none beyond the spec's
+     */
+    public RenderEngine(@NotNull ExecutorService renderExecutor,
+                        @NotNull MarkdownAssetsMetrics metrics,
+                        @NotNull CacheBuilderSpec cacheBuilderSpec,
+                        @Nullable Size maximumCacheSize) {
+        this(renderExecutor, null, metrics, cacheBuilderSpec, maximumCacheSize);
+    }
+
+    /**
+     * @param renderExecutor   executor on which pages are rendered
+     * @param quotaEnforcer    executor on which servlets' pages are evicted to keep them within their quotas, or null
+     *                         if no servlet using the engine is given a quota
+     * @param metrics          metrics to record rendering and serving activity with
+     * @param cacheBuilderSpec {@link CacheBuilderSpec} for rendered pages; unless this specifies a {@code maximumSize},
+     *                         pages are weighed by their size in bytes
+     * @param maximumCacheSize upper bound on the total size of cached pages, or null for none beyond the spec's
+     */
+    public RenderEngine(@NotNull ExecutorService renderExecutor,
+                        @Nullable ExecutorService quotaEnforcer,
+                        @NotNull MarkdownAssetsMetrics metrics,
+                        @NotNull CacheBuilderSpec cacheBuilderSpec,
+                        @Nullable Size maximumCacheSize) {
+        this.renderExecutor = renderExecutor;
+        this.quotaEnforcer = quotaEnforcer;
+        this.metrics = metrics;
+        this.maximumCacheBytes = maximumCacheSize != null ? maximumCacheSize.toBytes() : 0;
+        this.pageCache = buildPageCache(cacheBuilderSpec, maximumCacheSize);
+        metrics.registerCacheGauges(pageCache::size, this::cachedBytes);
+    }
+
+    private LoadingCache<PageKey, CachedPage> buildPageCache(CacheBuilderSpec cacheBuilderSpec, Size maximumCacheSize) {
+        CacheBuilder<PageKey, CachedPage> builder = CacheBuilder.from(cacheBuilderSpec)
+                .removalListener((RemovalNotification<PageKey, CachedPage> notification) -> {
+                    PageKey key = notification.getKey();
+                    CachedPage page = notification.getValue();
+                    // Pages evicted to enforce a quota are removed explicitly, but are evicted for size all the same
+                    RemovalCause cause = quotaEvictions.remove(key) && notification.getCause() == RemovalCause.EXPLICIT ?
+                            RemovalCause.SIZE : notification.getCause();
+                    if (notification.wasEvicted() || cause == RemovalCause.SIZE) {
+                        metrics.cacheEvictions.mark();
+                    }
+                    Quota quota = quotas.get(key.owner);
+                    if (quota != null && notification.getCause() != RemovalCause.REPLACED && !pageCache.asMap().containsKey(key)) {
+                        // A replaced page's key remains cached, charged for the page that replaced it when it was stored
+                        quota.release(key);
+                    }
+                    key.owner.removed(key, page, cause);
+                });
+
+        String parsableSpec = cacheBuilderSpec.toParsableString();
+        boolean weighed = parsableSpec.contains("maximumWeight");
+
+        if (maximumCacheSize != null) {
+            if (weighed || parsableSpec.contains("maximumSize")) {
+                throw new IllegalArgumentException("A maximum cache size in bytes cannot be combined with a cache spec " +
+                        "that has its own maximumSize or maximumWeight (" + parsableSpec + ")");
+            }
+            builder.maximumWeight(maximumCacheSize.toBytes());
+            weighed = true;
+        } else if (!weighed && !parsableSpec.contains("maximumSize")) {
+            // Pages are always weighed if possible, so that the cache is measured in bytes, as its owners' quotas are
+            builder.maximumWeight(Long.MAX_VALUE);
+            weighed = true;
+        }
+        this.weighed = weighed;
+
+        // Pages are rendered by their owners, which may differ from entry to entry, and charged to their quotas as
+        // they are loaded to be stored
+        CacheLoader<PageKey, CachedPage> loader = new CacheLoader<PageKey, CachedPage>() {
+            @Override
+            public CachedPage load(@NotNull PageKey key) throws Exception {
+                CachedPage page = key.owner.load(key);
+                charge(key, page);
+                return page;
+            }
+
+            @Override
+            public ListenableFuture<CachedPage> reload(@NotNull PageKey key, @NotNull CachedPage oldValue) throws Exception {
+                return Futures.transform(key.owner.reload(key, oldValue), (CachedPage page) -> {
+                    charge(key, page);
+                    return page;
+                }, MoreExecutors.directExecutor());
+            }
+        };
+
+        if (weighed) {
+            return builder.weigher((PageKey key, CachedPage page) -> page.weight()).build(loader);
+        }
+        return builder.build(loader);
+    }
+
+    /**
+     * Get parsers and renderers for a set of extensions and options, shared with any other servlet using the same.
+     *
+     * @param extensions flexmark extensions
+     * @param options    flexmark options
+     * @return a parser and renderer
+     */
+    @NotNull
+    Processors processors(@NotNull List<Extension> extensions, @NotNull DataHolder options) {
+        return processors.computeIfAbsent(RenderFingerprint.processorsHash(extensions, options), key -> new Processors(extensions, options));
+    }
+
+    /**
+     * Limit the total size of a servlet's cached pages.
+     *
+     * @param owner      loader of the servlet's pages
+     * @param quotaBytes maximum total size of the servlet's cached pages, in bytes
+     * @throws IllegalStateException if the cache's spec limits it by number of entries, so pages are not weighed
+     */
+    void setQuota(@NotNull PageLoader owner, long quotaBytes) {
+        if (quotaEnforcer == null) {
+            throw new IllegalStateException("A cache quota cannot be used with an engine that has no executor to enforce it");
+        }
+        if (!weighed) {
+            throw new IllegalStateException("A cache quota cannot be used with a cache spec that limits the number of " +
+                    "cached pages (maximumSize) rather than their size");
+        }
+        quotas.put(owner, new Quota(quotaBytes));
+    }
+
+    /**
+     * @return the page cache, shared by every servlet using this engine; keys belong to the servlet that owns them
+     */
+    @NotNull
+    LoadingCache<PageKey, CachedPage> pageCache() {
+        return pageCache;
+    }
+
+    /**
+     * Store a page rendered other than by its owner's loader, unless a page is already cached under its key.
+     *
+     * @return the page now cached under the key
+     */
+    @NotNull
+    CachedPage putIfAbsent(@NotNull PageKey key, @NotNull CachedPage page) {
+        CachedPage cached = pageCache.asMap().putIfAbsent(key, page);
+        if (cached != null) {
+            return cached;
+        }
+        charge(key, page);
+        return page;
+    }
+
+    /**
+     * @return the upper bound on the total size of cached pages, in bytes, or 0 if there is none
+     */
+    long maximumCacheBytes() {
+        return maximumCacheBytes;
+    }
+
+    @NotNull
+    ExecutorService renderExecutor() {
+        return renderExecutor;
+    }
+
+    @NotNull
+    MarkdownAssetsMetrics metrics() {
+        return metrics;
+    }
+
+    /*
+     * Charge a page being stored to its owner's quota, in place of any page charged under the same key before
+     */
+    private void charge(PageKey key, CachedPage page) {
+        Quota quota = quotas.get(key.owner);
+        if (quota != null && quota.charge(key, page.weight())) {
+            enforce(quota);
+        }
+    }
+
+    /*
+     * Evict an owner's oldest pages until it is back within its quota, off the thread that stored the page which took
+     * it over; pages are removed through the cache, so are released from the quota by the removal listener
+     */
+    private void enforce(Quota quota) {
+        if (!quota.enforcing.compareAndSet(false, true)) {
+            return;
+        }
+        quotaEnforcer.execute(() -> {
+            quota.enforcing.set(false);
+            for (PageKey key : quota.oldestFirst()) {
+                if (!quota.isExceeded()) {
+                    break;
+                }
+                if (!pageCache.asMap().containsKey(key)) {
+                    // Charged as it was loaded, but never stored (e.g. invalidated while it was rendered)
+                    quota.release(key);
+                    continue;
+                }
+                quotaEvictions.add(key);
+                pageCache.invalidate(key);
+                quotaEvictions.remove(key);
+            }
+        });
+    }
+
+    private long cachedBytes() {
+        long bytes = 0;
+        for (CachedPage page : pageCache.asMap().values()) {
+            bytes += page.weight();
+        }
+        return bytes;
+    }
+
+    /**
+     * A parser and renderer, which are thread safe and so shared by all rendering threads.
+     */
+    static class Processors {
+        final Parser parser;
+        final HtmlRenderer renderer;
+
+        private Processors(List<Extension> extensions, DataHolder options) {
+            parser = Parser.builder(options).extensions(extensions).build();
+            renderer = HtmlRenderer.builder(options).extensions(extensions).attributeProviderFactory(new HeadingCapture()).build();
+        }
+    }
+
+    /*
+     * The pages cached for one owner and their total size, against a limit
+     */
+    private static class Quota {
+        final long limit;
+        final AtomicBoolean enforcing = new AtomicBoolean();
+        // The weight charged for each key, ordered from least to most recently stored
+        private final Map<PageKey, Integer> weights = new LinkedHashMap<>();
+        private long bytes;
+
+        Quota(long limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * @return whether the quota is now exceeded
+         */
+        synchronized boolean charge(PageKey key, int weight) {
+            // Re-inserted, so that keys are ordered from least to most recently stored
+            release(key);
+            weights.put(key, weight);
+            bytes += weight;
+            return bytes > limit;
+        }
+
+        synchronized void release(PageKey key) {
+            Integer weight = weights.remove(key);
+            if (weight != null) {
+                bytes -= weight;
+            }
+        }
+
+        synchronized boolean isExceeded() {
+            return bytes > limit;
+        }
+
+        synchronized List<PageKey> oldestFirst() {
+            return new ArrayList<>(weights.keySet());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.vladsch.flexmark.Extension;
+import com.vladsch.flexmark.util.options.DataHolder;
+import com.vladsch.flexmark.util.options.DataKey;
+import org.jetbrains.annotations.NotNull;
+import org.rnorth.dropwizard.markdown.MarkdownAssetsConfiguration;
+
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A hash of everything other than the markdown source and template that affects how a page is rendered: flexmark
+ * extensions and options, whether include directives are expanded, and the configuration properties exposed to the
+ * template.
+ * <p>
+ * Combined with hashes of the source and template, this identifies a rendered page, so that pages rendered earlier
+ * (by another process, or at build time) can be reused only when they would render identically.
+ */
+final class RenderFingerprint {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final String value;
+
+    RenderFingerprint(@NotNull List<Extension> extensions,
+                      @NotNull DataHolder options,
+                      @NotNull MarkdownAssetsConfiguration configuration,
+                      @NotNull String uriPath) {
+        Hasher hasher = HASH.newHasher();
+        putProcessors(hasher, extensions, options);
+
+        hasher.putBoolean(configuration.isEnableMermaid())
+                .putBoolean(configuration.isEnableHlJs())
+                .putBoolean(configuration.isVersionedStylesheetUrl())
+                .putBoolean(configuration.isInlineStylesheet())
+                .putBoolean(configuration.isEnableIncludes())
+                .putString(configuration.getGoogleTrackingId(), StandardCharsets.UTF_8).putChar('\n')
+                .putString(configuration.getCopyrightFooter(), StandardCharsets.UTF_8).putChar('\n')
+                .putString(uriPath, StandardCharsets.UTF_8);
+
+        value = hasher.hash().toString();
+    }
+
+    /**
+     * @return a hash of flexmark extensions and options alone, identifying the parser and renderer they produce
+     */
+    @NotNull
+    static String processorsHash(@NotNull List<Extension> extensions, @NotNull DataHolder options) {
+        Hasher hasher = HASH.newHasher();
+        putProcessors(hasher, extensions, options);
+        return hasher.hash().toString();
+    }
+
+    private static void putProcessors(Hasher hasher, List<Extension> extensions, DataHolder options) {
+        for (Extension extension : extensions) {
+            hasher.putString(extension.getClass().getName(), StandardCharsets.UTF_8).putChar('\n');
+        }
+
+        // Options are unordered, so sort them by key name for a stable hash
+        Map<String, String> sortedOptions = new TreeMap<>();
+        for (Map.Entry<DataKey, Object> option : options.getAll().entrySet()) {
+            sortedOptions.put(option.getKey().getName(), stableValue(option.getValue()));
+        }
+        for (Map.Entry<String, String> option : sortedOptions.entrySet()) {
+            hasher.putString(option.getKey(), StandardCharsets.UTF_8).putChar('=')
+                    .putString(option.getValue(), StandardCharsets.UTF_8).putChar('\n');
+        }
+    }
+
+    /**
+     * @return a representation of an option value that is the same in every JVM: the value itself if it is well-defined
+     * (e.g. a string, number, boolean or enum, or a collection of them), or otherwise the name of its class, as the
+     * {@code toString()} of other objects may hold an identity hash or, for lambdas, a generated class name
+     */
+    static String stableValue(Object value) {
+        if (value == null || value instanceof CharSequence || value instanceof Number || value instanceof Boolean
+                || value instanceof Character) {
+            return String.valueOf(value);
+        }
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).getDeclaringClass().getName() + "." + ((Enum<?>) value).name();
+        }
+        if (value instanceof Class) {
+            return ((Class<?>) value).getName();
+        }
+        if (value instanceof Iterable) {
+            StringBuilder values = new StringBuilder("[");
+            for (Object element : (Iterable<?>) value) {
+                values.append(stableValue(element)).append(',');
+            }
+            return values.append(']').toString();
+        }
+        if (value.getClass().isArray()) {
+            StringBuilder values = new StringBuilder("[");
+            for (int i = 0; i < Array.getLength(value); i++) {
+                values.append(stableValue(Array.get(value, i))).append(',');
+            }
+            return values.append(']').toString();
+        }
+        if (value instanceof Map) {
+            // Sorted, as maps may be unordered
+            Map<String, String> entries = new TreeMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                entries.put(stableValue(entry.getKey()), stableValue(entry.getValue()));
+            }
+            return entries.toString();
+        }
+        // Synthetic classes, such as those of lambdas, are named differently from one JVM to the next
+        return value.getClass().isSynthetic() ? "?" : value.getClass().getName();
+    }
+
+    /**
+     * @param markdownSource markdown source of the page
+     * @param title          title of the page
+     * @param templateHash   hash of the template source the page is rendered with
+     * @return a key identifying the page rendered from these inputs with this fingerprint
+     */
+    @NotNull
+    String pageKey(@NotNull String markdownSource, @NotNull String title, @NotNull String templateHash) {
+        return HASH.newHasher()
+                .putString(value, StandardCharsets.UTF_8).putChar('\n')
+                .putString(templateHash, StandardCharsets.UTF_8).putChar('\n')
+                .putString(title, StandardCharsets.UTF_8).putChar('\n')
+                .putString(markdownSource, StandardCharsets.UTF_8)
+                .hash().toString();
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
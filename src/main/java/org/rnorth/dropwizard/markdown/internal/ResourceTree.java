@@ -0,0 +1,105 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * Lists the files that exist beneath a resource root, which may be either a {@code file:} or a {@code jar:} URI.
+ */
+final class ResourceTree {
+
+    private ResourceTree() {
+    }
+
+    /**
+     * @param resourceRootURL URI of the root directory to list
+     * @return paths of all regular files beneath the root, relative to it and separated with {@code /}
+     * @throws IOException if the root could not be read
+     * @throws IllegalArgumentException if the root is neither a file: or jar: URI
+     */
+    @NotNull
+    static List<String> listFiles(@NotNull URI resourceRootURL) throws IOException {
+        switch (resourceRootURL.getScheme()) {
+            case "file":
+                return listDirectory(Paths.get(resourceRootURL));
+            case "jar":
+                return listJarDirectory(resourceRootURL);
+            default:
+                throw new IllegalArgumentException("Cannot list resources under " + resourceRootURL);
+        }
+    }
+
+    /**
+     * @param url URL of a file, which may be either a {@code file:} or a {@code jar:} URL
+     * @return size of the file in bytes, or -1 if it cannot be determined
+     */
+    static long size(@NotNull URL url) {
+        try {
+            if ("file".equals(url.getProtocol())) {
+                return Files.size(Paths.get(url.toURI()));
+            }
+            URLConnection connection = url.openConnection();
+            try {
+                return connection.getContentLengthLong();
+            } finally {
+                if (!(connection instanceof JarURLConnection)) {
+                    // Jar connections share a cached JarFile, which must not be closed
+                    connection.getInputStream().close();
+                }
+            }
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    private static List<String> listDirectory(Path root) throws IOException {
+        ImmutableList.Builder<String> files = ImmutableList.builder();
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.filter(Files::isRegularFile)
+                    .map(path -> root.relativize(path).toString().replace(root.getFileSystem().getSeparator(), "/"))
+                    .forEach(files::add);
+        }
+        return files.build();
+    }
+
+    private static List<String> listJarDirectory(URI resourceRootURL) throws IOException {
+        URLConnection connection = resourceRootURL.toURL().openConnection();
+        if (!(connection instanceof JarURLConnection)) {
+            throw new IllegalArgumentException("Cannot list resources under " + resourceRootURL);
+        }
+        JarURLConnection jarConnection = (JarURLConnection) connection;
+        jarConnection.setUseCaches(false);
+
+        String prefix = jarConnection.getEntryName() == null ? "" : jarConnection.getEntryName();
+        if (!prefix.isEmpty() && !prefix.endsWith("/")) {
+            prefix = prefix + "/";
+        }
+
+        ImmutableList.Builder<String> files = ImmutableList.builder();
+        try (JarFile jarFile = jarConnection.getJarFile()) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && entry.getName().startsWith(prefix)) {
+                    files.add(entry.getName().substring(prefix.length()));
+                }
+            }
+        }
+        return files.build();
+    }
+}
@@ -0,0 +1,201 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import io.dropwizard.lifecycle.Managed;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches a file-system resource root for changes, and invalidates exactly the cached pages whose sources changed.
+ * <p>
+ * Changes to the page template (or any template it may include) or stylesheet invalidate every cached page. Bursts
+ * of events (e.g. an editor saving several files, or a sync of a mounted volume) are coalesced, and applied once no
+ * further events have arrived for {@code coalescePeriodMillis}, or at the latest {@link #MAX_COALESCE_PERIODS}
+ * coalesce periods after the burst began, so that files being written continuously cannot postpone invalidation
+ * indefinitely.
+ */
+public class ResourceWatcher implements Managed {
+
+    static final int MAX_COALESCE_PERIODS = 8;
+
+    private final MarkdownAssetsServlet servlet;
+    private final Path root;
+    private final long coalescePeriodMillis;
+
+    private WatchService watchService;
+    private Thread watchThread;
+
+    private static final Logger logger = LoggerFactory.getLogger(ResourceWatcher.class);
+
+    /**
+     * @param servlet              servlet whose cached pages should be invalidated
+     * @param coalescePeriodMillis quiet period to wait for after a change before invalidating pages
+     * @throws IllegalArgumentException if the servlet's resource root is not a file: URL
+     */
+    public ResourceWatcher(@NotNull MarkdownAssetsServlet servlet, long coalescePeriodMillis) {
+        if (!"file".equals(servlet.getResourceRootURL().getScheme())) {
+            throw new IllegalArgumentException("Only file: resource roots can be watched, not " + servlet.getResourceRootURL());
+        }
+        this.servlet = servlet;
+        this.root = Paths.get(servlet.getResourceRootURL()).normalize();
+        this.coalescePeriodMillis = coalescePeriodMillis;
+    }
+
+    @Override
+    public void start() throws Exception {
+        watchService = FileSystems.getDefault().newWatchService();
+        registerRecursively(root);
+
+        watchThread = new Thread(this::watch, "markdown-resource-watcher-" + root.getFileName());
+        watchThread.setDaemon(true);
+        watchThread.start();
+        logger.info("Watching {} for changes to markdown sources", root);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (watchService != null) {
+            watchService.close();
+        }
+        if (watchThread != null) {
+            watchThread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                Changes changes = new Changes();
+                collectChanges(watchService.take(), changes);
+
+                // Keep collecting until things go quiet, so that a burst of changes results in one invalidation
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(coalescePeriodMillis * MAX_COALESCE_PERIODS);
+                long remainingNanos;
+                WatchKey key;
+                while ((remainingNanos = deadline - System.nanoTime()) > 0 &&
+                        (key = watchService.poll(Math.min(TimeUnit.MILLISECONDS.toNanos(coalescePeriodMillis), remainingNanos), TimeUnit.NANOSECONDS)) != null) {
+                    collectChanges(key, changes);
+                }
+
+                try {
+                    apply(changes);
+                } catch (RuntimeException e) {
+                    // One failed invalidation must not stop changes from being picked up for the life of the app
+                    logger.error("Cached pages could not be invalidated after changes to {} - still watching for changes", changes.paths, e);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            logger.debug("Stopped watching {}", root);
+        }
+    }
+
+    private void apply(Changes changes) {
+        if (changes.filesAddedOrRemoved) {
+            try {
+                servlet.rescanResources();
+            } catch (IOException e) {
+                logger.warn("Resource root ({}) could not be rescanned after files were added or removed", root, e);
+            }
+        }
+
+        Set<Path> changedPaths = changes.paths;
+        if (changes.invalidateEverything) {
+            logger.info("Page template, stylesheet or an unknown set of files changed - invalidating all cached pages");
+            servlet.invalidateAll();
+        } else {
+            logger.info("Sources changed - invalidating cached pages for {}", changedPaths);
+            servlet.invalidate(url -> changedPaths.contains(toPath(url)));
+        }
+    }
+
+    private void collectChanges(WatchKey key, Changes changes) {
+        Path directory = (Path) key.watchable();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                changes.invalidateEverything = true;
+                changes.filesAddedOrRemoved = true;
+                continue;
+            }
+
+            Path changed = directory.resolve((Path) event.context()).normalize();
+            changes.paths.add(changed);
+
+            String fileName = changed.getFileName().toString();
+            // Any template may be included or imported by the page template
+            if (fileName.endsWith(PageTemplate.TEMPLATE_EXTENSION) || fileName.endsWith(AssetIndex.STYLESHEET_NAME)) {
+                changes.invalidateEverything = true;
+            }
+            if (event.kind() == ENTRY_CREATE || event.kind() == ENTRY_DELETE) {
+                changes.filesAddedOrRemoved = true;
+            }
+
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+                try {
+                    registerRecursively(changed);
+                } catch (IOException e) {
+                    logger.warn("New directory ({}) could not be watched for changes", changed, e);
+                }
+                // Files may have been created in the new directory before it was registered
+                changes.invalidateEverything = true;
+            }
+        }
+
+        if (!key.reset()) {
+            logger.debug("No longer watching {}", directory);
+        }
+    }
+
+    private void registerRecursively(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /*
+     * Changes accumulated over one burst of events
+     */
+    private static class Changes {
+        final Set<Path> paths = new HashSet<>();
+        boolean invalidateEverything;
+        boolean filesAddedOrRemoved;
+    }
+
+    private static Path toPath(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return Paths.get(url.toURI()).normalize();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
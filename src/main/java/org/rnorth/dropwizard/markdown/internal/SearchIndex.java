@@ -0,0 +1,334 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.ast.Node;
+import com.vladsch.flexmark.ast.Text;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over the text of parsed markdown pages, for full-text search.
+ * <p>
+ * Each term maps to postings held in parallel primitive arrays (page number and weight), so that the index stays
+ * compact for thousands of pages. Pages keep only the numbers of their terms, for removal, and the opening text used
+ * as their snippet. Words within headings are weighted more heavily than body text. Pages are (re-)indexed
+ * individually as they are parsed, without rebuilding the rest of the index.
+ */
+class SearchIndex {
+
+    /*
+     * Weight of an occurrence of a term in a heading, relative to one in body text
+     */
+    static final int HEADING_WEIGHT = 5;
+
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int SNIPPET_LENGTH = 160;
+
+    private final Map<String, Integer> termNumbers = new HashMap<>();
+    private final List<Postings> postings = new ArrayList<>();
+    private final Deque<Integer> freeTermNumbers = new ArrayDeque<>();
+    private final Map<String, Integer> pageNumbers = new HashMap<>();
+    private final List<IndexedPage> pages = new ArrayList<>();
+    private final Deque<Integer> freePageNumbers = new ArrayDeque<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Index a page, replacing any earlier version of it.
+     *
+     * @param path     path of the page, relative to the resource root
+     * @param document parsed markdown of the page
+     */
+    void update(@NotNull String path, @NotNull Node document) {
+        // Extracted before locking, so that searches are only blocked while postings change
+        StringBuilder text = new StringBuilder();
+        Map<String, Integer> termWeights = new HashMap<>();
+        extract(document, false, text, termWeights);
+        String title = firstHeading(document);
+        if (title == null || title.isEmpty()) {
+            title = path;
+        }
+        String snippet = snippet(text);
+
+        lock.writeLock().lock();
+        try {
+            removeLocked(path);
+
+            int pageNumber = freePageNumbers.isEmpty() ? pages.size() : freePageNumbers.pop();
+            int[] pageTerms = new int[termWeights.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> termWeight : termWeights.entrySet()) {
+                int termNumber = termNumber(termWeight.getKey());
+                postings.get(termNumber).add(pageNumber, termWeight.getValue());
+                pageTerms[i++] = termNumber;
+            }
+
+            IndexedPage page = new IndexedPage(path, title, snippet, pageTerms);
+            if (pageNumber == pages.size()) {
+                pages.add(page);
+            } else {
+                pages.set(pageNumber, page);
+            }
+            pageNumbers.put(path, pageNumber);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a page from the index, if it is indexed.
+     *
+     * @param path path of the page, relative to the resource root
+     */
+    void remove(@NotNull String path) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(path);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return paths of all indexed pages
+     */
+    @NotNull
+    Set<String> paths() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(pageNumbers.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the pages best matching a query. Pages are scored by the weighted occurrences of each query term, scaled by
+     * how rare the term is across all pages.
+     *
+     * @param query      words to search for
+     * @param maxResults maximum number of results to return
+     * @return matching pages, best first
+     */
+    @NotNull
+    List<Result> search(@NotNull String query, int maxResults) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        if (terms.isEmpty() || maxResults <= 0) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            int pageCount = pageNumbers.size();
+            double[] scores = new double[pages.size()];
+            boolean matched = false;
+            for (String term : terms) {
+                Integer termNumber = termNumbers.get(term);
+                if (termNumber == null) {
+                    continue;
+                }
+                Postings termPostings = postings.get(termNumber);
+                double idf = Math.log(1 + (double) pageCount / termPostings.size);
+                for (int i = 0; i < termPostings.size; i++) {
+                    // Dampened, so that a term repeated many times does not swamp the other terms
+                    scores[termPostings.pages[i]] += (1 + Math.log(termPostings.weights[i])) * idf;
+                }
+                matched = true;
+            }
+            if (!matched) {
+                return Collections.emptyList();
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (int pageNumber = 0; pageNumber < scores.length; pageNumber++) {
+                if (scores[pageNumber] > 0) {
+                    IndexedPage page = pages.get(pageNumber);
+                    results.add(new Result(page.path, page.title, scores[pageNumber], page.snippet));
+                }
+            }
+            results.sort((a, b) -> Double.compare(b.score, a.score));
+            return new ArrayList<>(results.subList(0, Math.min(maxResults, results.size())));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeLocked(String path) {
+        Integer pageNumber = pageNumbers.remove(path);
+        if (pageNumber == null) {
+            return;
+        }
+        for (int termNumber : pages.get(pageNumber).terms) {
+            Postings termPostings = postings.get(termNumber);
+            if (termPostings.remove(pageNumber) && termPostings.size == 0) {
+                termNumbers.remove(termPostings.term);
+                postings.set(termNumber, null);
+                freeTermNumbers.push(termNumber);
+            }
+        }
+        pages.set(pageNumber, null);
+        freePageNumbers.push(pageNumber);
+    }
+
+    /**
+     * @return the number of a term, allocating it (with empty postings) if the term is not yet indexed
+     */
+    private int termNumber(String term) {
+        Integer termNumber = termNumbers.get(term);
+        if (termNumber != null) {
+            return termNumber;
+        }
+        termNumber = freeTermNumbers.isEmpty() ? postings.size() : freeTermNumbers.pop();
+        if (termNumber == postings.size()) {
+            postings.add(new Postings(term));
+        } else {
+            postings.set(termNumber, new Postings(term));
+        }
+        termNumbers.put(term, termNumber);
+        return termNumber;
+    }
+
+    private static void extract(Node node, boolean inHeading, StringBuilder text, Map<String, Integer> termWeights) {
+        if (node instanceof Text) {
+            String chars = node.getChars().toString();
+            text.append(chars).append(' ');
+            int weight = inHeading ? HEADING_WEIGHT : 1;
+            for (String term : tokenize(chars)) {
+                termWeights.merge(term, weight, Integer::sum);
+            }
+        }
+        for (Node child : node.getChildren()) {
+            extract(child, inHeading || node instanceof Heading, text, termWeights);
+        }
+    }
+
+    private static String firstHeading(Node node) {
+        for (Node child : node.getChildren()) {
+            if (child instanceof Heading) {
+                StringBuilder text = new StringBuilder();
+                extract(child, true, text, new HashMap<>());
+                return text.toString().replaceAll("\\s+", " ").trim();
+            }
+            String heading = firstHeading(child);
+            if (heading != null) {
+                return heading;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the lower-cased words of some text, in order
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start >= MIN_TERM_LENGTH) {
+                    terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * @return the opening text of a page, shortened to a snippet
+     */
+    private static String snippet(CharSequence text) {
+        // Collapsing whitespace first would copy the whole page, so take a little more than is needed
+        int end = Math.min(text.length(), SNIPPET_LENGTH * 2);
+        String snippet = text.subSequence(0, end).toString().replaceAll("\\s+", " ").trim();
+        if (snippet.length() > SNIPPET_LENGTH || end < text.length()) {
+            return snippet.substring(0, Math.min(SNIPPET_LENGTH, snippet.length())).trim() + "...";
+        }
+        return snippet;
+    }
+
+    /*
+     * Postings of a single term, as growable parallel arrays
+     */
+    private static class Postings {
+        final String term;
+        int[] pages = new int[2];
+        int[] weights = new int[2];
+        int size;
+
+        Postings(String term) {
+            this.term = term;
+        }
+
+        void add(int page, int weight) {
+            if (size == pages.length) {
+                pages = Arrays.copyOf(pages, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            pages[size] = page;
+            weights[size] = weight;
+            size++;
+        }
+
+        boolean remove(int page) {
+            for (int i = 0; i < size; i++) {
+                if (pages[i] == page) {
+                    // Order is insignificant, so fill the gap with the last posting
+                    size--;
+                    pages[i] = pages[size];
+                    weights[i] = weights[size];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class IndexedPage {
+        final String path;
+        final String title;
+        final String snippet;
+        final int[] terms;
+
+        IndexedPage(String path, String title, String snippet, int[] terms) {
+            this.path = path;
+            this.title = title;
+            this.snippet = snippet;
+            this.terms = terms;
+        }
+    }
+
+    /**
+     * A page matching a search.
+     */
+    static class Result {
+        final String path;
+        final String title;
+        final double score;
+        final String snippet;
+
+        private Result(String path, String title, double score, String snippet) {
+            this.path = path;
+            this.title = title;
+            this.score = score;
+            this.snippet = snippet;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.escape.Escaper;
+import com.google.common.hash.Hashing;
+import com.google.common.html.HtmlEscapers;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Site-wide navigation built from the headings of every markdown page.
+ * <p>
+ * Each page's part of the navigation (including its HTML and JSON serializations) is computed when that page is
+ * indexed, so a change to one page never requires the others to be revisited. The navigation as a whole is assembled
+ * from these parts when first needed after a change, and then shared until the next change.
+ */
+class SiteIndex {
+
+    /*
+     * Deepest heading level included in the HTML navigation
+     */
+    static final int MAX_HTML_LEVEL = 3;
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    private static final Escaper HTML = HtmlEscapers.htmlEscaper();
+
+    private final String baseUri;
+    private final Map<String, Entry> entries;
+
+    private volatile SiteNavigation navigation;
+
+    /**
+     * @param uriPath   URI path that page paths are relative to
+     * @param indexFile name of the index file of each directory, which is ordered before the directory's other pages
+     */
+    SiteIndex(@NotNull String uriPath, @NotNull String indexFile) {
+        this.baseUri = uriPath.endsWith("/") ? uriPath : uriPath + "/";
+        this.entries = new ConcurrentSkipListMap<>(Comparator.comparing(
+                (String path) -> path.equals(indexFile) || path.endsWith("/" + indexFile) ?
+                        path.substring(0, path.length() - indexFile.length()) : path));
+    }
+
+    /**
+     * Index a page's headings, replacing any earlier version of them.
+     *
+     * @param path     path of the page, relative to the resource root
+     * @param headings headings of the page, in document order
+     * @return whether the navigation has changed as a result
+     */
+    boolean update(@NotNull String path, @NotNull List<PageHeading> headings) {
+        Entry entry = new Entry(path, headings);
+        synchronized (this) {
+            Entry previous = entries.put(path, entry);
+            if (entry.equals(previous)) {
+                return false;
+            }
+            navigation = null;
+            return true;
+        }
+    }
+
+    /**
+     * Remove a page from the navigation, if it is present.
+     *
+     * @param path path of the page, relative to the resource root
+     * @return whether the navigation has changed as a result
+     */
+    boolean remove(@NotNull String path) {
+        synchronized (this) {
+            if (entries.remove(path) == null) {
+                return false;
+            }
+            navigation = null;
+            return true;
+        }
+    }
+
+    /**
+     * @return paths of all pages in the navigation
+     */
+    @NotNull
+    Set<String> paths() {
+        return new HashSet<>(entries.keySet());
+    }
+
+    /**
+     * @return the current navigation
+     */
+    @NotNull
+    SiteNavigation navigation() {
+        SiteNavigation current = navigation;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (navigation == null) {
+                navigation = assemble();
+            }
+            return navigation;
+        }
+    }
+
+    private SiteNavigation assemble() {
+        List<SiteNavigation.Page> pages = new ArrayList<>(entries.size());
+        StringBuilder html = new StringBuilder("<nav class=\"site-index\"><ul>");
+        StringBuilder json = new StringBuilder("[");
+        for (Entry entry : entries.values()) {
+            pages.add(entry.page);
+            html.append(entry.html);
+            json.append(json.length() > 1 ? "," : "").append(entry.json);
+        }
+        html.append("</ul></nav>");
+        json.append(']');
+
+        String version = Hashing.murmur3_128().hashString(json, StandardCharsets.UTF_8).toString();
+        return new SiteNavigation(Collections.unmodifiableList(pages), html.toString(), json.toString(), version);
+    }
+
+    /*
+     * A single page's part of the navigation, pre-serialized
+     */
+    private class Entry {
+        final SiteNavigation.Page page;
+        final String html;
+        final String json;
+
+        Entry(String path, List<PageHeading> headings) {
+            String url = baseUri + path;
+            String title = headings.isEmpty() ? path : headings.get(0).getText();
+            this.page = new SiteNavigation.Page(url, title, Collections.unmodifiableList(new ArrayList<>(headings)));
+
+            StringBuilder html = new StringBuilder("<li><a href=\"").append(HTML.escape(url)).append("\">")
+                    .append(HTML.escape(title)).append("</a>");
+            // The first heading is already the page's own link
+            List<PageHeading> subHeadings = headings.isEmpty() ? headings : headings.subList(1, headings.size());
+            boolean listed = false;
+            for (PageHeading heading : subHeadings) {
+                if (heading.getLevel() > MAX_HTML_LEVEL) {
+                    continue;
+                }
+                html.append(listed ? "" : "<ul>").append("<li class=\"level-").append(heading.getLevel()).append("\"><a href=\"")
+                        .append(HTML.escape(heading.getId() != null ? url + "#" + heading.getId() : url)).append("\">")
+                        .append(HTML.escape(heading.getText())).append("</a></li>");
+                listed = true;
+            }
+            this.html = html.append(listed ? "</ul>" : "").append("</li>").toString();
+
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("url", url);
+            json.put("title", title);
+            json.put("headings", headings);
+            try {
+                this.json = JSON_MAPPER.writeValueAsString(json);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Navigation for " + path + " could not be serialized", e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return html.equals(other.html) && json.equals(other.json);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(html, json);
+        }
+    }
+}
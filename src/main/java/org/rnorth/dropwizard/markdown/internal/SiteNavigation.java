@@ -0,0 +1,98 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Navigation for a whole site: every markdown page, with its headings and their anchors. Available to page templates
+ * as {@code site}, e.g. {@code ${site.html}} for a ready-made navigation list, or {@code <#list site.pages as page>}
+ * to build one.
+ * <p>
+ * Instances are immutable snapshots, shared by every page rendered while the site is unchanged.
+ */
+public class SiteNavigation {
+
+    private final List<Page> pages;
+    private final String html;
+    private final String json;
+    private final String version;
+
+    /*
+     * Serialized forms, encoded once for serving
+     */
+    final byte[] htmlBytes;
+    final byte[] jsonBytes;
+
+    SiteNavigation(List<Page> pages, String html, String json, String version) {
+        this.pages = pages;
+        this.html = html;
+        this.json = json;
+        this.version = version;
+        this.htmlBytes = html.getBytes(StandardCharsets.UTF_8);
+        this.jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return every page, ordered by path with each directory's index page first
+     */
+    public List<Page> getPages() {
+        return pages;
+    }
+
+    /**
+     * @return the navigation as an HTML {@code nav} element, holding a nested list of links to pages and headings
+     */
+    public String getHtml() {
+        return html;
+    }
+
+    /**
+     * @return the navigation as a JSON array
+     */
+    public String getJson() {
+        return json;
+    }
+
+    /**
+     * @return a value that changes whenever the navigation does
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * A single page within the site.
+     */
+    public static class Page {
+        private final String url;
+        private final String title;
+        private final List<PageHeading> headings;
+
+        Page(String url, String title, List<PageHeading> headings) {
+            this.url = url;
+            this.title = title;
+            this.headings = headings;
+        }
+
+        /**
+         * @return the URL path of the page
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the page's first heading, or its path if it has none
+         */
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * @return the page's headings, in document order
+         */
+        public List<PageHeading> getHeadings() {
+            return headings;
+        }
+    }
+}
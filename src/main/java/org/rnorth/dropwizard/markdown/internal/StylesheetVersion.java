@@ -0,0 +1,103 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Resources;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+/**
+ * The current version of the bundle stylesheet at the root of the resource path, identified by a hash of its content.
+ * <p>
+ * Pages can link to the stylesheet at a URL containing the hash, which changes whenever the stylesheet does, so that
+ * browsers can cache it indefinitely; or they can include it inline. Either way, pages depend on the stylesheet's
+ * content, so its hash forms part of their ETags.
+ */
+class StylesheetVersion {
+
+    /*
+     * Cache-Control for the stylesheet at its current versioned URL, whose content can never change
+     */
+    static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private static final String ROOT_STYLESHEET_PATH = "/" + AssetIndex.STYLESHEET_NAME;
+    private static final Pattern VERSIONED_PATH = Pattern.compile("/dropwizard-markdown\\.[0-9a-f]+\\.css");
+
+    private final AssetIndex assetIndex;
+
+    private volatile Version current;
+
+    StylesheetVersion(@NotNull AssetIndex assetIndex) {
+        this.assetIndex = assetIndex;
+    }
+
+    /**
+     * @param path request path, relative to the servlet's URI path
+     * @return whether the path is for a version of the root stylesheet (though not necessarily the current one)
+     */
+    static boolean isVersionedPath(@NotNull String path) {
+        return VERSIONED_PATH.matcher(path).matches();
+    }
+
+    /**
+     * @return the current version of the stylesheet, re-read only if its last modified time or size has changed
+     * @throws IOException if the stylesheet could not be read
+     */
+    @NotNull
+    Version current() throws IOException {
+        AssetIndex.ResolvedAsset asset = assetIndex.resolve(ROOT_STYLESHEET_PATH);
+        if (asset.url == null) {
+            throw new IOException("Stylesheet (" + ROOT_STYLESHEET_PATH + ") could not be resolved");
+        }
+        long lastModified = asset.lastModified();
+        long size = asset.size();
+
+        Version version = current;
+        if (version == null || !version.url.toString().equals(asset.url.toString())
+                || version.lastModified != lastModified || version.size != size) {
+            version = new Version(asset.url, lastModified, size, Resources.toByteArray(asset.url));
+            current = version;
+        }
+        return version;
+    }
+
+    /**
+     * @return the source URL of the stylesheet as last read, or null if it has not been read
+     */
+    @Nullable
+    URL lastUrl() {
+        Version version = current;
+        return version != null ? version.url : null;
+    }
+
+    /**
+     * A single version of the stylesheet.
+     */
+    static class Version {
+        final URL url;
+        final long lastModified;
+        final long size;
+        final String hash;
+        final String css;
+
+        private Version(URL url, long lastModified, long size, byte[] content) {
+            this.url = url;
+            this.lastModified = lastModified;
+            this.size = size;
+            // Short enough for a URL, while still practically unique among versions of one file
+            this.hash = Hashing.murmur3_128().hashBytes(content).toString().substring(0, 16);
+            this.css = new String(content, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the path, relative to the servlet's URI path, at which this version is served
+         */
+        String path() {
+            return "/dropwizard-markdown." + hash + ".css";
+        }
+    }
+}
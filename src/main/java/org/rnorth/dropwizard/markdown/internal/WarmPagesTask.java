@@ -0,0 +1,48 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.servlets.tasks.Task;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.function.Predicate;
+
+/**
+ * Admin task that renders the markdown pages beneath one or more path prefixes ({@code prefix}, relative to the
+ * bundle's URI path; by default, every page) into the page cache afresh, in parallel - e.g.
+ * {@code curl -X POST 'http://localhost:8081/tasks/warm-assets?prefix=/guide/'}.
+ */
+public class WarmPagesTask extends Task {
+
+    private final MarkdownAssetsServlet servlet;
+    private final int parallelism;
+
+    /**
+     * @param assetsName  name of the bundle's servlet mapping, which the task is named after
+     * @param servlet     servlet whose pages should be rendered
+     * @param parallelism maximum number of pages to render concurrently
+     */
+    public WarmPagesTask(@NotNull String assetsName, @NotNull MarkdownAssetsServlet servlet, int parallelism) {
+        super("warm-" + assetsName);
+        this.servlet = servlet;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+        ImmutableCollection<String> prefixes = parameters.get("prefix");
+        Predicate<URL> sources = prefixes.isEmpty() ? servlet.sourcesUnder("/") : url -> false;
+        for (String prefix : prefixes) {
+            sources = sources.or(servlet.sourcesUnder(prefix));
+        }
+
+        // Discarded first, so that cached pages are rendered again rather than left as they are - along with any pages
+        // that include them, which are discarded too
+        Predicate<URL> pages = servlet.pagesAffectedBy(sources);
+        int discarded = servlet.invalidate(sources);
+        int rendered = servlet.warmCache(pages, parallelism);
+        output.println("Rendered " + rendered + " pages, replacing " + discarded + " cached pages");
+    }
+}
@@ -8,10 +8,16 @@
     <#if useHlJs>
         <link rel="stylesheet" href="//cdnjs.cloudflare.com/ajax/libs/highlight.js/9.7.0/styles/default.min.css">
     </#if>
-    <link rel="stylesheet" href="${uriPath}dropwizard-markdown.css"/>
+    <#if inlineStylesheet??>
+    <style>
+${inlineStylesheet}
+    </style>
+    <#else>
+    <link rel="stylesheet" href="${stylesheetUrl}"/>
+    </#if>
 </head>
 <body>
-    ${html}
+    <@htmlFragment/>
 
     <#if useMermaid>
         <script src="//cdn.rawgit.com/knsv/mermaid/6.0.0/dist/mermaid.min.js"></script>
@@ -1,5 +1,6 @@
 package org.rnorth.dropwizard.markdown;
 
+import com.codahale.metrics.MetricRegistry;
 import io.dropwizard.Application;
 import io.dropwizard.Configuration;
 import io.dropwizard.setup.Bootstrap;
@@ -12,9 +13,17 @@ import org.junit.Test;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
 import java.net.URISyntaxException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import static org.rnorth.dropwizard.markdown.PageCacheIntTest.eventually;
+import static org.rnorth.visibleassertions.VisibleAssertions.assertEquals;
 import static org.rnorth.visibleassertions.VisibleAssertions.assertFalse;
+import static org.rnorth.visibleassertions.VisibleAssertions.assertNull;
 import static org.rnorth.visibleassertions.VisibleAssertions.assertTrue;
 import static uk.co.deloittedigital.dropwizard.testsupport.Targets.localTarget;
 
@@ -78,6 +87,30 @@ public class MarkdownAssetsBundleIntTest {
         assertFalse("HlJs is not included if the app is configured as such", response.contains("hljs.initHighlightingOnLoad"));
     }
 
+    @Test
+    public void testServerSideHighlighting() throws URISyntaxException {
+        String response = localTarget(client, APP_NO_EXTRAS, "/docs/index.md").get(String.class);
+        assertTrue("Fenced code is highlighted when rendered if the app is configured to do so",
+                response.contains("<span class=\"hljs-string\">&quot;Python syntax highlighting&quot;</span>"));
+        assertTrue("Highlighted code is marked as highlighted when rendered", response.contains("<pre class=\"server-highlighted\">"));
+        assertTrue("Code in unsupported languages is rendered as usual", response.contains("class=\"language-mermaid\""));
+
+        String unhighlighted = localTarget(client, APP, "/docs/index.md").get(String.class);
+        assertFalse("Fenced code is not highlighted when rendered unless configured", unhighlighted.contains("hljs-string"));
+    }
+
+    @Test
+    public void testIncludes() throws URISyntaxException {
+        String response = localTarget(client, APP, "/docs/with-includes.md").get(String.class);
+        assertTrue("An included file is rendered in place of its include directive", response.contains("authenticated with an API token"));
+        assertTrue("An include cycle is noted rather than followed", response.contains("include cycle: with-includes.md -&gt; with-includes.md"));
+        assertTrue("Headings in an included file are given anchor IDs", response.contains("<h2 id=\"authentication\">"));
+        assertFalse("A directive shown as code is not included", response.contains("include not found"));
+
+        String unincluded = localTarget(client, APP_NO_EXTRAS, "/docs/with-includes.md").get(String.class);
+        assertFalse("Include directives are left as comments unless enabled", unincluded.contains("authenticated with an API token"));
+    }
+
     @Test
     public void testGoogleAnalyticsInclusion() throws URISyntaxException {
         String response = localTarget(client, APP, "/docs/index.md").get(String.class);
@@ -90,6 +123,181 @@ public class MarkdownAssetsBundleIntTest {
         assertFalse("Google Analytics is not included if the app is configured as such", response.contains("GoogleAnalyticsObject"));
     }
 
+    @Test
+    public void testDirectoryIndexUsage() throws URISyntaxException {
+        String response = localTarget(client, APP, "/docs/").get(String.class);
+        assertTrue("The index document is rendered for a directory request", response.contains("<h1 id=\"test\">"));
+    }
+
+    @Test
+    public void testMissingMarkdownNotFound() throws URISyntaxException {
+        Response response = localTarget(client, APP, "/docs/no-such-page.md").get();
+        assertEquals("A missing markdown page is not found", 404, response.getStatus());
+
+        response = localTarget(client, APP, "/docs/no-such-page.md").get();
+        assertEquals("A missing markdown page is still not found when requested again", 404, response.getStatus());
+    }
+
+    @Test
+    public void testPagePackNotServed() throws URISyntaxException {
+        Response response = localTarget(client, APP, "/docs/markdown-pages.pack").get();
+        assertEquals("The page pack is not served as an asset", 404, response.getStatus());
+    }
+
+    @Test
+    public void testGzipVariantNegotiation() throws URISyntaxException {
+        Response response = localTarget(client, APP, "/docs/index.md")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate")
+                .get();
+        assertEquals("A gzip encoded variant is served if the client accepts it", "gzip", response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        assertTrue("The response varies by Accept-Encoding", response.getHeaderString(HttpHeaders.VARY).contains(HttpHeaders.ACCEPT_ENCODING));
+        assertTrue("The encoded variant has its own ETag", response.getHeaderString(HttpHeaders.ETAG).endsWith("-gzip\""));
+    }
+
+    @Test
+    public void testFragmentAndJsonFormats() throws URISyntaxException {
+        String fragment = client.target("http://localhost:" + APP.getLocalPort() + "/docs/index.md")
+                .queryParam("format", "fragment").request().get(String.class);
+        assertTrue("The fragment format contains the rendered markdown", fragment.contains("<h1 id=\"test\">"));
+        assertFalse("The fragment format is not wrapped in the page template", fragment.contains("<html"));
+
+        Response json = localTarget(client, APP, "/docs/index.md").header(HttpHeaders.ACCEPT, "application/json").get();
+        assertTrue("The JSON format is negotiated by Accept", json.getMediaType().toString().startsWith("application/json"));
+        assertTrue("The JSON format lists the page's headings", json.readEntity(String.class).contains("\"id\":\"test\""));
+    }
+
+    @Test
+    public void testSearch() throws URISyntaxException {
+        String response = client.target("http://localhost:" + APP.getLocalPort() + "/docs/_search")
+                .queryParam("q", "tasklists").request().get(String.class);
+        assertTrue("Search finds the page containing the term", response.contains("\"url\":\"/docs/index.md\""));
+        assertTrue("Search results are titled by the page's first heading", response.contains("\"title\":\"Test\""));
+
+        Response notFound = localTarget(client, APP_NO_EXTRAS, "/docs/_search").get();
+        assertEquals("Search is not available unless enabled", 404, notFound.getStatus());
+    }
+
+    @Test
+    public void testSiteNavigation() throws URISyntaxException {
+        String html = localTarget(client, APP, "/docs/_site").get(String.class);
+        assertTrue("The site navigation links to each page's headings", html.contains("<a href=\"/docs/index.md#tests\">Tests</a>"));
+
+        String json = localTarget(client, APP, "/docs/_site").header(HttpHeaders.ACCEPT, "application/json").get(String.class);
+        assertTrue("The site navigation is available as JSON", json.startsWith("[{\"url\":\"/docs/index.md\",\"title\":\"Test\""));
+    }
+
+    @Test
+    public void testIdentityVariantNegotiation() throws URISyntaxException {
+        Response response = localTarget(client, APP, "/docs/index.md")
+                .header(HttpHeaders.ACCEPT_ENCODING, "identity")
+                .get();
+        String body = response.readEntity(String.class);
+        assertNull("No content encoding is used if the client does not accept compression", response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("Content-Length matches the unencoded page", body.getBytes().length, response.getLength());
+    }
+
+    @Test
+    public void testConditionalRequestNotModified() throws URISyntaxException {
+        Response response = localTarget(client, APP, "/docs/index.md").get();
+        String eTag = response.getHeaderString(HttpHeaders.ETAG);
+
+        response = localTarget(client, APP, "/docs/index.md")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .get();
+        assertEquals("A request with a current ETag is answered with 304", 304, response.getStatus());
+    }
+
+    @Test
+    public void testCacheControl() throws URISyntaxException {
+        Response response = localTarget(client, APP, "/docs/index.md").get();
+        assertEquals("Pages are served with the configured Cache-Control", "no-cache", response.getHeaderString(HttpHeaders.CACHE_CONTROL));
+
+        Matcher stylesheetLink = Pattern.compile("href=\"/docs/(dropwizard-markdown\\.[0-9a-f]+\\.css)\"").matcher(response.readEntity(String.class));
+        assertTrue("The page links to the stylesheet by a versioned URL", stylesheetLink.find());
+
+        response = localTarget(client, APP, "/docs/" + stylesheetLink.group(1)).get();
+        assertEquals("The versioned stylesheet is served", 200, response.getStatus());
+        assertTrue("The versioned stylesheet may be cached indefinitely", response.getHeaderString(HttpHeaders.CACHE_CONTROL).contains("immutable"));
+
+        String unversionedPage = localTarget(client, APP_NO_EXTRAS, "/docs/index.md").get(String.class);
+        assertTrue("By default, the page links to the stylesheet by its unversioned URL", unversionedPage.contains("href=\"/docs/dropwizard-markdown.css\""));
+    }
+
+    @Test
+    public void testHeadRequest() throws URISyntaxException {
+        Response response = localTarget(client, APP, "/docs/index.md").head();
+        assertEquals("A HEAD request for a page succeeds", 200, response.getStatus());
+        assertEquals("A HEAD request has the same ETag as a GET", localTarget(client, APP, "/docs/index.md").get().getHeaderString(HttpHeaders.ETAG), response.getHeaderString(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testRangeRequest() throws URISyntaxException {
+        String page = localTarget(client, APP, "/docs/index.md").get(String.class);
+
+        Response response = localTarget(client, APP, "/docs/index.md")
+                .header("Range", "bytes=0-9")
+                .get();
+        assertEquals("A range of a rendered page is served as partial content", 206, response.getStatus());
+        assertEquals("The requested range of the page is served", page.substring(0, 10), response.readEntity(String.class));
+        assertEquals("The Content-Range is given", "bytes 0-9/" + page.getBytes().length, response.getHeaderString("Content-Range"));
+
+        response = localTarget(client, APP, "/docs/index.md")
+                .header("Range", "bytes=" + page.getBytes().length + "-")
+                .get();
+        assertEquals("A range beyond the end of the page is not satisfiable", 416, response.getStatus());
+    }
+
+    @Test
+    public void testAdminTasks() throws URISyntaxException {
+        localTarget(client, APP, "/docs/index.md").get(String.class);
+        String tasks = "http://localhost:" + APP.getAdminPort() + "/tasks/";
+
+        String statistics = client.target(tasks + "cache-stats-assets").request().post(Entity.text(""), String.class);
+        assertTrue("Cache statistics are reported as JSON", statistics.contains("\"hitRate\""));
+
+        String invalidated = client.target(tasks + "invalidate-assets").queryParam("path", "/index.md")
+                .request().post(Entity.text(""), String.class);
+        assertTrue("Cached pages can be discarded by path", invalidated.startsWith("Discarded "));
+
+        String warmed = client.target(tasks + "warm-assets").queryParam("prefix", "/")
+                .request().post(Entity.text(""), String.class);
+        assertTrue("Pages beneath a prefix can be rendered into the cache", warmed.startsWith("Rendered "));
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        MetricRegistry metrics = APP.getEnvironment().metrics();
+        String prefix = "org.rnorth.dropwizard.markdown.internal.MarkdownAssetsServlet.assets.";
+        for (String timer : new String[]{"render.source-load", "render.parse", "render.html", "render.template", "render.total", "requests", "search"}) {
+            assertTrue("Timer " + timer + " is registered", metrics.getTimers().containsKey(prefix + timer));
+        }
+        for (String meter : new String[]{"render.rejected", "render.timeouts", "cache.hits", "cache.misses", "cache.evictions", "not-modified", "stale-served", "bytes-written"}) {
+            assertTrue("Meter " + meter + " is registered", metrics.getMeters().containsKey(prefix + meter));
+        }
+        for (String gauge : new String[]{"cache.entries", "cache.bytes"}) {
+            assertTrue("Gauge " + gauge + " is registered", metrics.getGauges().containsKey(prefix + gauge));
+        }
+
+        // A request is only timed once the servlet returns, which may be after the client has the whole response
+        long warmUpRequests = metrics.timer(prefix + "requests").getCount();
+        localTarget(client, APP, "/docs/index.md").get(String.class);
+        assertTrue("The first request is timed", eventually(() -> metrics.timer(prefix + "requests").getCount() > warmUpRequests));
+        long requests = metrics.timer(prefix + "requests").getCount();
+        long hits = metrics.meter(prefix + "cache.hits").getCount();
+        long notModified = metrics.meter(prefix + "not-modified").getCount();
+        long bytesWritten = metrics.meter(prefix + "bytes-written").getCount();
+
+        String page = localTarget(client, APP, "/docs/index.md").get(String.class);
+        assertTrue("Each request is timed", eventually(() -> metrics.timer(prefix + "requests").getCount() == requests + 1));
+        assertEquals("A request for a cached page is counted as a hit", hits + 1, metrics.meter(prefix + "cache.hits").getCount());
+        assertEquals("The bytes of the page written are counted", bytesWritten + page.getBytes().length, metrics.meter(prefix + "bytes-written").getCount());
+
+        String eTag = localTarget(client, APP, "/docs/index.md").get().getHeaderString(HttpHeaders.ETAG);
+        localTarget(client, APP, "/docs/index.md").header(HttpHeaders.IF_NONE_MATCH, eTag).get();
+        assertEquals("A 304 response is counted", notModified + 1, metrics.meter(prefix + "not-modified").getCount());
+        assertTrue("Cached pages are gauged", (Long) metrics.getGauges().get(prefix + "cache.entries").getValue() > 0);
+    }
+
     public static class TestApp extends Application<TestConfiguration> {
 
         @Override
@@ -0,0 +1,200 @@
+package org.rnorth.dropwizard.markdown;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.Application;
+import io.dropwizard.setup.Bootstrap;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.testing.ResourceHelpers;
+import io.dropwizard.testing.junit.DropwizardAppRule;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.rnorth.dropwizard.markdown.MarkdownAssetsBundleIntTest.TestApp;
+import org.rnorth.dropwizard.markdown.MarkdownAssetsBundleIntTest.TestConfiguration;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.HttpHeaders;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.rnorth.visibleassertions.VisibleAssertions.assertEquals;
+import static org.rnorth.visibleassertions.VisibleAssertions.assertTrue;
+import static uk.co.deloittedigital.dropwizard.testsupport.Targets.localTarget;
+
+/**
+ * Tests of how rendered pages are kept in, refreshed in and evicted from the page cache.
+ */
+public class PageCacheIntTest {
+
+    static final String METRICS_PREFIX = "org.rnorth.dropwizard.markdown.internal.MarkdownAssetsServlet.assets.";
+
+    @ClassRule
+    public static final DropwizardAppRule<TestConfiguration> REFRESHING_APP = new DropwizardAppRule<>(
+            TestApp.class,
+            ResourceHelpers.resourceFilePath("int-test-config-refresh.yml")
+    );
+
+    @ClassRule
+    public static final DropwizardAppRule<TestConfiguration> EXPIRING_APP = new DropwizardAppRule<>(
+            TestApp.class,
+            ResourceHelpers.resourceFilePath("int-test-config-expiring.yml")
+    );
+
+    @ClassRule
+    public static final DropwizardAppRule<TestConfiguration> BOUNDED_APP = new DropwizardAppRule<>(
+            TestApp.class,
+            ResourceHelpers.resourceFilePath("int-test-config-bounded.yml")
+    );
+
+    @ClassRule
+    public static final DropwizardAppRule<TestConfiguration> WATCHING_APP = new DropwizardAppRule<>(
+            WatchedApp.class,
+            ResourceHelpers.resourceFilePath("int-test-config-watched.yml")
+    );
+
+    private static Client client;
+
+    @BeforeClass
+    public static void initializeClient() {
+        client = ClientBuilder.newClient();
+    }
+
+    @Test
+    public void testRefreshReusesUnchangedPage() throws Exception {
+        String eTag = localTarget(client, REFRESHING_APP, "/docs/with-includes.md").get().getHeaderString(HttpHeaders.ETAG);
+        long renders = renderCount(REFRESHING_APP);
+
+        // Past the refresh interval, the next request revalidates the page
+        Meter revalidations = REFRESHING_APP.getEnvironment().metrics().meter(METRICS_PREFIX + "cache.revalidations");
+        assertTrue("The page is revalidated once past the refresh interval", eventually(() -> {
+            localTarget(client, REFRESHING_APP, "/docs/with-includes.md").get(String.class);
+            return revalidations.getCount() > 0;
+        }));
+
+        assertEquals("An unchanged page is not re-rendered when refreshed", renders, renderCount(REFRESHING_APP));
+        assertEquals("An unchanged page keeps its ETag when refreshed", eTag,
+                localTarget(client, REFRESHING_APP, "/docs/with-includes.md").get().getHeaderString(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testConfiguredCacheSpecOverridesBundle() throws Exception {
+        localTarget(client, EXPIRING_APP, "/docs/with-includes.md").get(String.class);
+        long renders = renderCount(EXPIRING_APP);
+
+        // The bundle's own spec would only refresh the page, which would not re-render it as it is unchanged
+        assertTrue("A page is re-rendered once it expires under the configured cache spec", eventually(() -> {
+            localTarget(client, EXPIRING_APP, "/docs/with-includes.md").get(String.class);
+            return renderCount(EXPIRING_APP) > renders;
+        }));
+        assertEquals("A page is re-rendered once when it expires", renders + 1, renderCount(EXPIRING_APP));
+    }
+
+    @Test
+    public void testMaximumCacheSizeEvictsPages() throws Exception {
+        for (String format : new String[]{"", "?format=fragment"}) {
+            for (String page : new String[]{"/docs/index.md", "/docs/with-includes.md", "/docs/snippets/auth.md"}) {
+                localTarget(client, BOUNDED_APP, page + format).get(String.class);
+            }
+        }
+
+        Map<String, Meter> meters = BOUNDED_APP.getEnvironment().metrics().getMeters();
+        Map<String, Gauge> gauges = BOUNDED_APP.getEnvironment().metrics().getGauges();
+        assertTrue("Pages are evicted once the maximum cache size is reached", meters.get(METRICS_PREFIX + "cache.evictions").getCount() > 0);
+        assertTrue("Cached pages fit within the maximum cache size", (Long) gauges.get(METRICS_PREFIX + "cache.bytes").getValue() <= 12 * 1024);
+        assertTrue("Pages that fit remain cached", (Long) gauges.get(METRICS_PREFIX + "cache.entries").getValue() > 0);
+
+        String statistics = client.target("http://localhost:" + BOUNDED_APP.getAdminPort() + "/tasks/cache-stats-assets")
+                .request().post(Entity.text(""), String.class);
+        assertEquals("Pages evicted to make room are not kept to be served stale", 0L,
+                new ObjectMapper().readTree(statistics).get("staleEntries").asLong());
+    }
+
+    @Test
+    public void testWatcherInvalidatesChangedPage() throws Exception {
+        Path source = Paths.get(ResourceHelpers.resourceFilePath("watched-docs/page.md"));
+        byte[] original = Files.readAllBytes(source);
+        try {
+            assertTrue("The original page is served",
+                    localTarget(client, WATCHING_APP, "/docs/page.md").get(String.class).contains("Original content."));
+
+            Files.write(source, "# Watched\n\nChanged content.\n".getBytes(StandardCharsets.UTF_8));
+            assertTrue("A changed page is re-rendered without any cache expiry", eventually(() ->
+                    localTarget(client, WATCHING_APP, "/docs/page.md").get(String.class).contains("Changed content.")));
+        } finally {
+            Files.write(source, original);
+        }
+    }
+
+    @Test
+    public void testWatcherInvalidatesDuringContinuousChanges() throws Exception {
+        Path source = Paths.get(ResourceHelpers.resourceFilePath("watched-docs/page.md"));
+        byte[] original = Files.readAllBytes(source);
+        localTarget(client, WATCHING_APP, "/docs/page.md").get(String.class);
+
+        // Write more often than the coalesce period for longer than a burst may be coalesced for
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            int revision = 0;
+            while (writing.get()) {
+                try {
+                    Files.write(source, ("# Watched\n\nRevision " + revision++ + ".\n").getBytes(StandardCharsets.UTF_8));
+                    Thread.sleep(20);
+                } catch (IOException | InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        writer.start();
+        try {
+            assertTrue("A page that is written continuously is still invalidated", eventually(() ->
+                    localTarget(client, WATCHING_APP, "/docs/page.md").get(String.class).contains("Revision ")));
+        } finally {
+            writing.set(false);
+            writer.join();
+            Files.write(source, original);
+        }
+    }
+
+    static boolean eventually(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.call()) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    static long renderCount(DropwizardAppRule<?> app) {
+        Timer renders = app.getEnvironment().metrics().getTimers().get(METRICS_PREFIX + "render.total");
+        return renders.getCount();
+    }
+
+    public static class WatchedApp extends Application<TestConfiguration> {
+
+        @Override
+        public void initialize(Bootstrap<TestConfiguration> bootstrap) {
+            bootstrap.addBundle(new MarkdownAssetsBundle()
+                                    .withResourcePath("/watched-docs")
+                                    .withUriPath("/docs"));
+        }
+
+        @Override
+        public void run(TestConfiguration configuration, Environment environment) throws Exception {
+
+        }
+    }
+}
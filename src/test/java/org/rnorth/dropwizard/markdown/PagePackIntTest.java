@@ -0,0 +1,115 @@
+package org.rnorth.dropwizard.markdown;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import io.dropwizard.Application;
+import io.dropwizard.setup.Bootstrap;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.testing.ResourceHelpers;
+import io.dropwizard.testing.junit.DropwizardAppRule;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.ExternalResource;
+import org.junit.rules.RuleChain;
+import org.rnorth.dropwizard.markdown.MarkdownAssetsBundleIntTest.TestConfiguration;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.rnorth.visibleassertions.VisibleAssertions.assertEquals;
+import static org.rnorth.visibleassertions.VisibleAssertions.assertTrue;
+import static org.rnorth.visibleassertions.VisibleAssertions.fail;
+import static uk.co.deloittedigital.dropwizard.testsupport.Targets.localTarget;
+
+/**
+ * Tests serving of pages from a page pack built by {@link RenderPagePackCommand} before the application starts.
+ */
+public class PagePackIntTest {
+
+    private static final DropwizardAppRule<TestConfiguration> APP = new DropwizardAppRule<>(
+            PackedApp.class,
+            ResourceHelpers.resourceFilePath("int-test-config-pack.yml")
+    );
+
+    @ClassRule
+    public static final RuleChain PACKED_APP = RuleChain.outerRule(new PagePackBuilder()).around(APP);
+
+    private static Client client;
+
+    @BeforeClass
+    public static void initializeClient() {
+        client = ClientBuilder.newClient();
+    }
+
+    @Test
+    public void testPageServedFromPack() throws Exception {
+        Response response = localTarget(client, APP, "/docs/page.md").get();
+        assertEquals("A page in the pack is served", 200, response.getStatus());
+        assertTrue("The page from the pack is rendered", response.readEntity(String.class).contains("rendered into a page pack"));
+        MetricRegistry metrics = APP.getEnvironment().metrics();
+        assertEquals("A page in the pack is served without parsing", 0L, metrics.timer(PageCacheIntTest.METRICS_PREFIX + "render.parse").getCount());
+        assertEquals("A page in the pack is served without templating", 0L, metrics.timer(PageCacheIntTest.METRICS_PREFIX + "render.template").getCount());
+    }
+
+    @Test
+    public void testBundlesWithTheSameNameAreRejected() {
+        Bootstrap<TestConfiguration> bootstrap = new Bootstrap<>(new PackedApp());
+        bootstrap.addBundle(new MarkdownAssetsBundle().withResourcePath("/packed-docs").withUriPath("/docs"));
+        try {
+            bootstrap.addBundle(new MarkdownAssetsBundle().withResourcePath("/docs").withUriPath("/other-docs"));
+        } catch (IllegalStateException e) {
+            assertTrue("A second bundle with the same name is rejected, naming the fix", e.getMessage().contains("withAssetsName"));
+            return;
+        }
+        fail("A second bundle with the same name, whose render command would clash, is rejected");
+    }
+
+    public static class PackedApp extends Application<TestConfiguration> {
+
+        static final MarkdownAssetsBundle BUNDLE = new MarkdownAssetsBundle()
+                .withResourcePath("/packed-docs")
+                .withUriPath("/docs");
+
+        @Override
+        public void initialize(Bootstrap<TestConfiguration> bootstrap) {
+            bootstrap.addBundle(BUNDLE);
+        }
+
+        @Override
+        public void run(TestConfiguration configuration, Environment environment) throws Exception {
+
+        }
+    }
+
+    /*
+     * Renders the pack into the test class path, as the command would be run at build time, and removes it afterwards
+     */
+    private static class PagePackBuilder extends ExternalResource {
+
+        private final Path classesDirectory = Paths.get(ResourceHelpers.resourceFilePath("int-test-config-pack.yml")).getParent();
+
+        @Override
+        protected void before() throws Throwable {
+            new RenderPagePackCommand<>(PackedApp.BUNDLE, TestConfiguration.class).run(
+                    new Bootstrap<>(new PackedApp()),
+                    new Namespace(ImmutableMap.of("classesDirectory", classesDirectory.toString())),
+                    new TestConfiguration());
+        }
+
+        @Override
+        protected void after() {
+            try {
+                Files.deleteIfExists(classesDirectory.resolve(PackedApp.BUNDLE.getPagePackPath()));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.rnorth.dropwizard.markdown;
+
+import freemarker.template.TemplateMethodModelEx;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateNumberModel;
+import io.dropwizard.Application;
+import io.dropwizard.setup.Bootstrap;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.testing.ResourceHelpers;
+import io.dropwizard.testing.junit.DropwizardAppRule;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.rnorth.dropwizard.markdown.MarkdownAssetsBundleIntTest.TestConfiguration;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.rnorth.dropwizard.markdown.PageCacheIntTest.eventually;
+import static org.rnorth.visibleassertions.VisibleAssertions.assertEquals;
+import static org.rnorth.visibleassertions.VisibleAssertions.assertTrue;
+import static uk.co.deloittedigital.dropwizard.testsupport.Targets.localTarget;
+
+/**
+ * Tests of the limits placed on rendering: a render pool of one thread with a queue of one, a render timeout far
+ * shorter than the time taken to render the {@code slow-*} pages, and a maximum source size of one kilobyte.
+ */
+public class RenderLimitsIntTest {
+
+    @ClassRule
+    public static final DropwizardAppRule<TestConfiguration> APP = new DropwizardAppRule<>(
+            SlowApp.class,
+            ResourceHelpers.resourceFilePath("int-test-config-limits-sync.yml")
+    );
+
+    @ClassRule
+    public static final DropwizardAppRule<TestConfiguration> ASYNC_APP = new DropwizardAppRule<>(
+            SlowApp.class,
+            ResourceHelpers.resourceFilePath("int-test-config-limits-async.yml")
+    );
+
+    private static Client client;
+    private static ExecutorService requests;
+
+    @BeforeClass
+    public static void initializeClient() {
+        client = ClientBuilder.newClient();
+        requests = Executors.newCachedThreadPool();
+    }
+
+    @AfterClass
+    public static void shutDownRequests() {
+        requests.shutdownNow();
+    }
+
+    @Test
+    public void testRenderTimeout() throws Exception {
+        assertRenderTimesOut(APP);
+    }
+
+    @Test
+    public void testRenderTimeoutWhenServingAsynchronously() throws Exception {
+        assertRenderTimesOut(ASYNC_APP);
+    }
+
+    @Test
+    public void testRenderRejectedWhenSaturated() throws Exception {
+        assertRenderRejected(APP);
+    }
+
+    @Test
+    public void testRenderRejectedWhenSaturatedAndServingAsynchronously() throws Exception {
+        assertRenderRejected(ASYNC_APP);
+    }
+
+    @Test
+    public void testStalePageServedWhenSaturated() throws Exception {
+        long staleServed = meterCount(APP, "stale-served");
+        assertEquals("A page which renders quickly is served", 200, localTarget(client, APP, "/docs/fast.md").get().getStatus());
+
+        String invalidated = client.target("http://localhost:" + APP.getAdminPort() + "/tasks/invalidate-assets")
+                .queryParam("path", "/fast.md").request().post(Entity.text(""), String.class);
+        assertTrue("The page is discarded from the cache", invalidated.startsWith("Discarded 1 "));
+
+        List<Future<Response>> saturating = saturate(APP);
+        try {
+            Response response = localTarget(client, APP, "/docs/fast.md").get();
+            assertEquals("The discarded page is served while the render pool is saturated", 200, response.getStatus());
+            assertTrue("The discarded page's content is served", response.readEntity(String.class).contains("This page renders quickly"));
+            assertEquals("Serving the discarded page is counted", staleServed + 1, meterCount(APP, "stale-served"));
+        } finally {
+            awaitAll(saturating);
+        }
+    }
+
+    @Test
+    public void testMaxSourceSize() throws Exception {
+        Response response = localTarget(client, APP, "/docs/large.md").get();
+        assertEquals("A source larger than the maximum source size is not rendered", 404, response.getStatus());
+    }
+
+    private static void assertRenderTimesOut(DropwizardAppRule<TestConfiguration> app) throws Exception {
+        long timeouts = meterCount(app, "render.timeouts");
+        long start = System.nanoTime();
+
+        try {
+            Response response = localTarget(client, app, "/docs/slow-1.md").get();
+            assertEquals("A page which does not render within the render timeout is unavailable", 503, response.getStatus());
+            assertEquals("Clients are told when to retry", "1", response.getHeaderString(HttpHeaders.RETRY_AFTER));
+            assertTrue("The response is not held up until the render completes", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+            assertEquals("The timeout is counted", timeouts + 1, meterCount(app, "render.timeouts"));
+        } finally {
+            awaitIdle();
+        }
+    }
+
+    private static void assertRenderRejected(DropwizardAppRule<TestConfiguration> app) throws Exception {
+        long rejections = meterCount(app, "render.rejected");
+
+        List<Future<Response>> saturating = saturate(app);
+        try {
+            Response response = localTarget(client, app, "/docs/slow-3.md").get();
+            assertEquals("A page which cannot be queued for rendering is unavailable", 503, response.getStatus());
+            assertEquals("Clients are told when to retry", "1", response.getHeaderString(HttpHeaders.RETRY_AFTER));
+            assertEquals("The rejection is counted", rejections + 1, meterCount(app, "render.rejected"));
+        } finally {
+            awaitAll(saturating);
+        }
+    }
+
+    /*
+     * Occupy the render thread and the single queue slot with slow renders
+     */
+    private static List<Future<Response>> saturate(DropwizardAppRule<TestConfiguration> app) throws Exception {
+        long misses = meterCount(app, "cache.misses");
+        List<Future<Response>> saturating = new ArrayList<>();
+        saturating.add(requests.submit(() -> localTarget(client, app, "/docs/slow-1.md").get()));
+        assertTrue("The render thread is occupied", eventually(() -> Sleep.ACTIVE.get() == 1));
+        saturating.add(requests.submit(() -> localTarget(client, app, "/docs/slow-2.md").get()));
+        assertTrue("A second render is requested", eventually(() -> meterCount(app, "cache.misses") == misses + 2));
+        // The miss is counted just before the render is queued
+        Thread.sleep(100);
+        return saturating;
+    }
+
+    /*
+     * Wait for slow renders to finish, as a render thread is not freed until its render completes
+     */
+    private static void awaitAll(List<Future<Response>> saturating) throws Exception {
+        for (Future<Response> request : saturating) {
+            request.get();
+        }
+        awaitIdle();
+    }
+
+    private static void awaitIdle() throws Exception {
+        assertTrue("Slow renders complete", eventually(() -> Sleep.ACTIVE.get() == 0));
+        // Allow the render thread to discard any cancelled render still queued
+        Thread.sleep(100);
+    }
+
+    private static long meterCount(DropwizardAppRule<?> app, String meter) {
+        return app.getEnvironment().metrics().getMeters().get(PageCacheIntTest.METRICS_PREFIX + meter).getCount();
+    }
+
+    public static class SlowApp extends Application<TestConfiguration> {
+
+        @Override
+        public void initialize(Bootstrap<TestConfiguration> bootstrap) {
+            bootstrap.addBundle(new MarkdownAssetsBundle()
+                                    .withResourcePath("/slow-docs")
+                                    .withUriPath("/docs"));
+        }
+
+        @Override
+        public void run(TestConfiguration configuration, Environment environment) throws Exception {
+
+        }
+    }
+
+    /**
+     * Template method which sleeps for the given number of milliseconds. Like a render busy parsing, it is not cut
+     * short by an interrupt, but fails once it has finished if it was interrupted.
+     */
+    public static class Sleep implements TemplateMethodModelEx {
+
+        static final AtomicInteger ACTIVE = new AtomicInteger();
+
+        @Override
+        public Object exec(List arguments) throws TemplateModelException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(((TemplateNumberModel) arguments.get(0)).getAsNumber().longValue());
+            boolean interrupted = false;
+            ACTIVE.incrementAndGet();
+            try {
+                for (long remaining = deadline - System.nanoTime(); remaining > 0; remaining = deadline - System.nanoTime()) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(remaining);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                ACTIVE.decrementAndGet();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+                throw new TemplateModelException("Interrupted");
+            }
+            return "";
+        }
+    }
+}
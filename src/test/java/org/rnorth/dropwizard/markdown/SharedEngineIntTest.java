@@ -0,0 +1,96 @@
+package org.rnorth.dropwizard.markdown;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.Application;
+import io.dropwizard.setup.Bootstrap;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.testing.ResourceHelpers;
+import io.dropwizard.testing.junit.DropwizardAppRule;
+import io.dropwizard.util.Size;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.rnorth.dropwizard.markdown.MarkdownAssetsBundleIntTest.TestConfiguration;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import java.io.IOException;
+
+import static org.rnorth.visibleassertions.VisibleAssertions.assertEquals;
+import static org.rnorth.visibleassertions.VisibleAssertions.assertTrue;
+import static uk.co.deloittedigital.dropwizard.testsupport.Targets.localTarget;
+
+/**
+ * Tests two bundles sharing one engine, one of which has a quota of the engine's cache.
+ */
+public class SharedEngineIntTest {
+
+    private static final long QUOTA_BYTES = Size.kilobytes(8).toBytes();
+    private static final String[] PAGES = {"/index.md", "/with-includes.md", "/snippets/auth.md"};
+
+    @ClassRule
+    public static final DropwizardAppRule<TestConfiguration> APP = new DropwizardAppRule<>(
+            SharedEngineApp.class,
+            ResourceHelpers.resourceFilePath("int-test-config-pack.yml")
+    );
+
+    private static Client client;
+
+    @BeforeClass
+    public static void initializeClient() {
+        client = ClientBuilder.newClient();
+    }
+
+    @Test
+    public void testQuotaLimitsOneBundle() throws Exception {
+        for (String format : new String[]{"", "?format=fragment"}) {
+            for (String page : PAGES) {
+                localTarget(client, APP, "/limited" + page + format).get(String.class);
+                localTarget(client, APP, "/unlimited" + page + format).get(String.class);
+            }
+        }
+
+        // Pages over the quota are evicted in the background
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cacheStatistics("limited").get("bytes").asLong() > QUOTA_BYTES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        JsonNode limited = cacheStatistics("limited");
+        assertTrue("The bundle with a quota has pages cached", limited.get("entries").asLong() > 0);
+        assertTrue("The bundle with a quota has had older pages evicted", limited.get("entries").asLong() < PAGES.length * 2);
+        assertTrue("The bundle with a quota is kept within it", limited.get("bytes").asLong() <= QUOTA_BYTES);
+        assertEquals("The bundle without a quota keeps every page cached", (long) PAGES.length * 2, cacheStatistics("unlimited").get("entries").asLong());
+    }
+
+    private static JsonNode cacheStatistics(String assetsName) throws IOException {
+        String statistics = client.target("http://localhost:" + APP.getAdminPort() + "/tasks/cache-stats-" + assetsName)
+                .request().post(Entity.text(""), String.class);
+        return new ObjectMapper().readTree(statistics);
+    }
+
+    public static class SharedEngineApp extends Application<TestConfiguration> {
+
+        @Override
+        public void initialize(Bootstrap<TestConfiguration> bootstrap) {
+            MarkdownEngine engine = new MarkdownEngine();
+            bootstrap.addBundle(new MarkdownAssetsBundle()
+                                    .withResourcePath("/docs")
+                                    .withUriPath("/limited")
+                                    .withAssetsName("limited")
+                                    .withEngine(engine, Size.kilobytes(8)));
+            bootstrap.addBundle(new MarkdownAssetsBundle()
+                                    .withResourcePath("/docs")
+                                    .withUriPath("/unlimited")
+                                    .withAssetsName("unlimited")
+                                    .withEngine(engine));
+        }
+
+        @Override
+        public void run(TestConfiguration configuration, Environment environment) throws Exception {
+
+        }
+    }
+}
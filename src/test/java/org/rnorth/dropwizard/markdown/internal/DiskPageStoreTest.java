@@ -0,0 +1,120 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.rnorth.visibleassertions.VisibleAssertions.assertEquals;
+import static org.rnorth.visibleassertions.VisibleAssertions.assertFalse;
+import static org.rnorth.visibleassertions.VisibleAssertions.assertNotNull;
+import static org.rnorth.visibleassertions.VisibleAssertions.assertNull;
+import static org.rnorth.visibleassertions.VisibleAssertions.assertTrue;
+
+public class DiskPageStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() {
+        directory = temporaryFolder.getRoot().toPath().resolve("pages");
+    }
+
+    @Test
+    public void testStoredPageIsRead() throws IOException {
+        DiskPageStore store = new DiskPageStore(directory, 1024 * 1024);
+        CachedPage page = page("Stored page", 1000L);
+        store.put("key", page);
+
+        CachedPage stored = store.get("key", 1000L);
+        assertNotNull("A stored page is read back", stored);
+        assertEquals("The stored page has the same ETag", page.eTag, stored.eTag);
+        assertEquals("The stored page has the same content", "Stored page", contentOf(stored));
+        assertEquals("The stored page's size is accounted for", Files.size(directory.resolve("key.page")), store.totalBytes());
+    }
+
+    @Test
+    public void testPageStoredUnderDifferentKeyIsDiscarded() throws IOException {
+        DiskPageStore store = new DiskPageStore(directory, 1024 * 1024);
+        store.put("original", page("Stored page", 1000L));
+        Files.copy(directory.resolve("original.page"), directory.resolve("copied.page"));
+
+        assertNull("A page stored under another key is not read", store.get("copied", 1000L));
+        assertFalse("A page stored under another key is deleted", Files.exists(directory.resolve("copied.page")));
+        assertNotNull("The page under its own key is still read", store.get("original", 1000L));
+    }
+
+    @Test
+    public void testTruncatedPageIsDiscarded() throws IOException {
+        DiskPageStore store = new DiskPageStore(directory, 1024 * 1024);
+        store.put("key", page("Stored page", 1000L));
+        Path file = directory.resolve("key.page");
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+
+        assertNull("A truncated page is not read", store.get("key", 1000L));
+        assertFalse("A truncated page is deleted", Files.exists(file));
+    }
+
+    @Test
+    public void testCorruptPageIsDiscarded() throws IOException {
+        DiskPageStore store = new DiskPageStore(directory, 1024 * 1024);
+        Path file = directory.resolve("key.page");
+        Files.write(file, "not a stored page".getBytes(StandardCharsets.UTF_8));
+
+        assertNull("A corrupt page is not read", store.get("key", 1000L));
+        assertFalse("A corrupt page is deleted", Files.exists(file));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedPagesAreEvicted() throws IOException {
+        DiskPageStore sizing = new DiskPageStore(temporaryFolder.newFolder("sizing").toPath(), Long.MAX_VALUE);
+        sizing.put("page0", page("Page 0", 1000L));
+        long pageSize = sizing.totalBytes();
+
+        long maximumBytes = pageSize * 3;
+        DiskPageStore store = new DiskPageStore(directory, maximumBytes);
+        for (int i = 0; i < 3; i++) {
+            store.put("page" + i, page("Page " + i, 1000L));
+            // Give each page a distinct time of last use, oldest first
+            Files.setLastModifiedTime(directory.resolve("page" + i + ".page"), FileTime.fromMillis(1000L * (i + 1)));
+        }
+        store.put("page3", page("Page 3", 1000L));
+
+        assertTrue("Stored pages are evicted down to the maximum size", store.totalBytes() <= maximumBytes);
+        assertNull("The least recently used page is evicted", store.get("page0", 1000L));
+        assertNotNull("The most recently stored page is kept", store.get("page3", 1000L));
+    }
+
+    @Test
+    public void testOrphanedTemporaryFilesAreDeleted() throws IOException {
+        Files.createDirectories(directory);
+        Path orphan = Files.createTempFile(directory, "key", ".tmp");
+
+        DiskPageStore store = new DiskPageStore(directory, 1024 * 1024);
+        assertFalse("Temporary files left by an earlier process are deleted", Files.exists(orphan));
+        assertEquals("Temporary files are not accounted for", 0L, store.totalBytes());
+    }
+
+    private static CachedPage page(String content, long lastModifiedTime) {
+        return new CachedPage(content.getBytes(StandardCharsets.UTF_8), lastModifiedTime, "text/html");
+    }
+
+    private static String contentOf(CachedPage page) {
+        ByteBuffer content = page.variantFor(null).content.duplicate();
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,29 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import org.junit.Test;
+
+import static org.rnorth.visibleassertions.VisibleAssertions.assertEquals;
+
+public class PageFormatTest {
+
+    @Test
+    public void testAcceptIsNegotiatedByQuality() {
+        assertEquals("The format of highest quality is chosen, wherever it is listed",
+                PageFormat.JSON, PageFormat.select(null, "text/html;q=0.5, application/json"));
+        assertEquals("Of formats of equal quality, the first listed is chosen",
+                PageFormat.FRAGMENT, PageFormat.select(null, "text/html;variant=fragment, application/json"));
+    }
+
+    @Test
+    public void testUnacceptableFormatsAreIgnored() {
+        assertEquals("A format with a quality of 0 is never chosen",
+                PageFormat.FRAGMENT, PageFormat.select(null, "application/json;q=0, text/html;variant=fragment;q=0.1"));
+        assertEquals("The complete page is served if no acceptable format is listed",
+                PageFormat.PAGE, PageFormat.select(null, "application/json;q=0, */*"));
+    }
+
+    @Test
+    public void testQueryParameterOverridesAccept() {
+        assertEquals("The format parameter takes precedence", PageFormat.PAGE, PageFormat.select("page", "application/json"));
+    }
+}
@@ -0,0 +1,31 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.rnorth.visibleassertions.VisibleAssertions.assertEquals;
+import static org.rnorth.visibleassertions.VisibleAssertions.assertFalse;
+
+public class RenderFingerprintTest {
+
+    @Test
+    public void testWellDefinedValuesAreHashedByValue() {
+        assertEquals("Strings are represented by value", "text", RenderFingerprint.stableValue("text"));
+        assertEquals("Numbers are represented by value", "42", RenderFingerprint.stableValue(42));
+        assertEquals("Enums are represented by name", "java.util.concurrent.TimeUnit.SECONDS", RenderFingerprint.stableValue(TimeUnit.SECONDS));
+        assertEquals("Collections are represented by their elements", "[a,1,]", RenderFingerprint.stableValue(Arrays.asList("a", 1)));
+    }
+
+    @Test
+    public void testOtherValuesAreHashedByClass() {
+        assertEquals("Objects without a well-defined value are represented by class, not identity",
+                RenderFingerprint.stableValue(new Object()), RenderFingerprint.stableValue(new Object()));
+
+        Supplier<String> lambda = () -> "value";
+        assertFalse("Lambdas are not represented by their generated class names",
+                RenderFingerprint.stableValue(lambda).contains("Lambda"));
+    }
+}
@@ -0,0 +1,40 @@
+package org.rnorth.dropwizard.markdown.internal;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.rnorth.visibleassertions.VisibleAssertions.assertEquals;
+import static org.rnorth.visibleassertions.VisibleAssertions.assertFalse;
+import static org.rnorth.visibleassertions.VisibleAssertions.assertTrue;
+
+public class SiteIndexTest {
+
+    @Test
+    public void testIndexFilesAreOrderedFirst() {
+        SiteIndex index = new SiteIndex("/docs", "index.md");
+        for (String path : Arrays.asList("reindex.md", "re.md", "b/page.md", "b/index.md", "a.md", "index.md")) {
+            index.update(path, Collections.singletonList(new PageHeading(1, path, null)));
+        }
+
+        List<String> urls = index.navigation().getPages().stream().map(SiteNavigation.Page::getUrl).collect(Collectors.toList());
+        assertEquals("Only index files are ordered before their directory's other pages, and other pages by path",
+                Arrays.asList("/docs/index.md", "/docs/a.md", "/docs/b/index.md", "/docs/b/page.md", "/docs/re.md", "/docs/reindex.md"),
+                urls);
+    }
+
+    @Test
+    public void testUnchangedHeadingsDoNotChangeNavigation() {
+        SiteIndex index = new SiteIndex("/docs", "index.md");
+        assertTrue("Indexing a new page changes the navigation", index.update("a.md", Collections.singletonList(new PageHeading(1, "A", "a"))));
+        String version = index.navigation().getVersion();
+
+        assertFalse("Re-indexing unchanged headings does not change the navigation",
+                index.update("a.md", Collections.singletonList(new PageHeading(1, "A", "a"))));
+        assertEquals("The navigation version is unchanged", version, index.navigation().getVersion());
+        assertTrue("Changed headings change the navigation", index.update("a.md", Collections.singletonList(new PageHeading(1, "B", "b"))));
+    }
+}
@@ -0,0 +1,12 @@
+<!DOCTYPE html>
+<html lang="en">
+<head>
+    <meta charset="UTF-8">
+    <title>${title}</title>
+</head>
+<body>
+<#-- Pages named slow-* take far longer to render than the render timeout -->
+<#if title?starts_with("slow")>${"org.rnorth.dropwizard.markdown.RenderLimitsIntTest$Sleep"?new()(2000)}</#if>
+    <@htmlFragment/>
+</body>
+</html>